@@ -0,0 +1,207 @@
+/**
+ * Copyright 2017 Alessandro Simi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.exemplary.aws;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accumulates the capacity units consumed per table, per index,
+ * per operation, per second and per partition key. The tables are
+ * metered by access key and region, as DynamoDBLocal keeps them
+ * apart, and reported by name, adding up the tables with the same name.
+ */
+class CapacityMeter {
+
+    private final static int HOT_PARTITION_KEYS = 10;
+    private final static int MAX_TRACKED_PARTITION_KEYS = 10000;
+
+    // Table meters by table name and by access key and region
+    private final Map<String, Map<List<String>, TableMeter>> tables = new TreeMap<String, Map<List<String>, TableMeter>>();
+
+    /**
+     * @param indexName the secondary index name or {@code null} for the table.
+     * @param partitionKey the partition key or {@code null} if the request spans the partitions.
+     */
+    synchronized void record(String accessKey, String region, String tableName, String indexName, String operation,
+                             String partitionKey, double read, double write) {
+        if (read == 0 && write == 0) return;
+        Map<List<String>, TableMeter> namespaces = tables.get(tableName);
+        if (namespaces == null) {
+            namespaces = new HashMap<List<String>, TableMeter>();
+            tables.put(tableName, namespaces);
+        }
+        List<String> namespace = Arrays.asList(accessKey, region);
+        TableMeter table = namespaces.get(namespace);
+        if (table == null) {
+            table = new TableMeter();
+            namespaces.put(namespace, table);
+        }
+        table.record(indexName, operation, partitionKey, read, write);
+    }
+
+    synchronized void reset() {
+        tables.clear();
+    }
+
+    /**
+     * Forget the table under the access key, in every region.
+     */
+    synchronized void reset(String accessKey, String tableName) {
+        Map<List<String>, TableMeter> namespaces = tables.get(tableName);
+        if (namespaces == null) return;
+        Iterator<List<String>> iterator = namespaces.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().get(0).equals(accessKey)) iterator.remove();
+        }
+        if (namespaces.isEmpty()) tables.remove(tableName);
+    }
+
+    synchronized CapacityReport report() {
+        Map<String, CapacityReport.TableCapacity> report = new LinkedHashMap<String, CapacityReport.TableCapacity>();
+        for (Map.Entry<String, Map<List<String>, TableMeter>> table : tables.entrySet()) {
+            TableMeter sum = new TableMeter();
+            for (TableMeter namespace : table.getValue().values()) sum.addAll(namespace);
+            report.put(table.getKey(), sum.report(table.getKey()));
+        }
+        return new CapacityReport(report);
+    }
+
+    private static class TableMeter {
+
+        private final Units total = new Units();
+        private final Map<String, Units> indexes = new TreeMap<String, Units>();
+        private final Map<String, Units> operations = new TreeMap<String, Units>();
+        private final Map<Long, Units> seconds = new HashMap<Long, Units>();
+        private final Map<String, Units> partitionKeys = new HashMap<String, Units>();
+
+        void record(String indexName, String operation, String partitionKey, double read, double write) {
+            if (indexName == null) total.add(read, write);
+            else unitsOf(indexes, indexName).add(read, write);
+            unitsOf(operations, operation).add(read, write);
+            unitsOf(seconds, TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis())).add(read, write);
+            if (indexName == null && partitionKey != null) {
+                unitsOf(partitionKeys, partitionKey).add(read, write);
+                if (partitionKeys.size() > MAX_TRACKED_PARTITION_KEYS) evictColdPartitionKeys();
+            }
+        }
+
+        void addAll(TableMeter other) {
+            total.add(other.total.read, other.total.write);
+            addAll(indexes, other.indexes);
+            addAll(operations, other.operations);
+            addAll(seconds, other.seconds);
+            addAll(partitionKeys, other.partitionKeys);
+        }
+
+        private static <K> void addAll(Map<K, Units> units, Map<K, Units> other) {
+            for (Map.Entry<K, Units> entry : other.entrySet()) {
+                unitsOf(units, entry.getKey()).add(entry.getValue().read, entry.getValue().write);
+            }
+        }
+
+        /**
+         * Keep the memory bounded forgetting the partition keys below the average.
+         */
+        private void evictColdPartitionKeys() {
+            double sum = 0;
+            for (Units units : partitionKeys.values()) sum += units.sum();
+            double average = sum / partitionKeys.size();
+            Iterator<Units> iterator = partitionKeys.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().sum() <= average) iterator.remove();
+            }
+        }
+
+        CapacityReport.TableCapacity report(String tableName) {
+            Units peak = new Units();
+            Units sum = new Units();
+            long first = Long.MAX_VALUE;
+            long last = Long.MIN_VALUE;
+            for (Map.Entry<Long, Units> second : seconds.entrySet()) {
+                Units units = second.getValue();
+                peak.read = Math.max(peak.read, units.read);
+                peak.write = Math.max(peak.write, units.write);
+                sum.add(units.read, units.write);
+                first = Math.min(first, second.getKey());
+                last = Math.max(last, second.getKey());
+            }
+            long elapsed = seconds.isEmpty() ? 1 : last - first + 1;
+            return new CapacityReport.TableCapacity(
+                    tableName,
+                    total.toCapacity(),
+                    toCapacities(indexes),
+                    toCapacities(operations),
+                    peak.toCapacity(),
+                    new CapacityReport.Capacity(sum.read / elapsed, sum.write / elapsed),
+                    hotPartitionKeys()
+            );
+        }
+
+        private Map<String, CapacityReport.Capacity> hotPartitionKeys() {
+            List<Map.Entry<String, Units>> keys = new ArrayList<Map.Entry<String, Units>>(partitionKeys.entrySet());
+            Collections.sort(keys, new Comparator<Map.Entry<String, Units>>() {
+                public int compare(Map.Entry<String, Units> first, Map.Entry<String, Units> second) {
+                    return Double.compare(second.getValue().sum(), first.getValue().sum());
+                }
+            });
+            Map<String, CapacityReport.Capacity> hot = new LinkedHashMap<String, CapacityReport.Capacity>();
+            for (Map.Entry<String, Units> key : keys.subList(0, Math.min(HOT_PARTITION_KEYS, keys.size()))) {
+                hot.put(key.getKey(), key.getValue().toCapacity());
+            }
+            return hot;
+        }
+
+        private static <K> Units unitsOf(Map<K, Units> units, K key) {
+            Units found = units.get(key);
+            if (found == null) {
+                found = new Units();
+                units.put(key, found);
+            }
+            return found;
+        }
+
+        private static Map<String, CapacityReport.Capacity> toCapacities(Map<String, Units> units) {
+            Map<String, CapacityReport.Capacity> capacities = new LinkedHashMap<String, CapacityReport.Capacity>();
+            for (Map.Entry<String, Units> entry : units.entrySet()) {
+                capacities.put(entry.getKey(), entry.getValue().toCapacity());
+            }
+            return capacities;
+        }
+
+    }
+
+    private static class Units {
+
+        double read = 0;
+        double write = 0;
+
+        void add(double read, double write) {
+            this.read += read;
+            this.write += write;
+        }
+
+        double sum() {
+            return read + write;
+        }
+
+        CapacityReport.Capacity toCapacity() {
+            return new CapacityReport.Capacity(read, write);
+        }
+
+    }
+
+}
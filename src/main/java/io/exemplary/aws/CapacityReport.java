@@ -0,0 +1,175 @@
+/**
+ * Copyright 2017 Alessandro Simi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.exemplary.aws;
+
+import java.util.*;
+
+/**
+ * Capacity units consumed by the server requests, per table.
+ */
+public class CapacityReport {
+
+    private final Map<String, TableCapacity> tables;
+
+    CapacityReport(Map<String, TableCapacity> tables) {
+        this.tables = Collections.unmodifiableMap(tables);
+    }
+
+    /**
+     * @return the capacity consumed by each table, by table name.
+     */
+    public Map<String, TableCapacity> getTables() {
+        return tables;
+    }
+
+    /**
+     * @param tableName the table name.
+     * @return the capacity consumed by the table or {@code null} if the table has not been used.
+     */
+    public TableCapacity getTable(String tableName) {
+        return tables.get(tableName);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        for (TableCapacity table : tables.values()) {
+            report.append(table);
+        }
+        return report.toString();
+    }
+
+    /**
+     * Read and write capacity units.
+     */
+    public static class Capacity {
+
+        private final double readCapacityUnits;
+        private final double writeCapacityUnits;
+
+        Capacity(double readCapacityUnits, double writeCapacityUnits) {
+            this.readCapacityUnits = readCapacityUnits;
+            this.writeCapacityUnits = writeCapacityUnits;
+        }
+
+        public double getReadCapacityUnits() {
+            return readCapacityUnits;
+        }
+
+        public double getWriteCapacityUnits() {
+            return writeCapacityUnits;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("read %.1f, write %.1f", readCapacityUnits, writeCapacityUnits);
+        }
+
+    }
+
+    /**
+     * Capacity consumed by the table, its secondary indexes and the requests on it.
+     */
+    public static class TableCapacity {
+
+        private final String tableName;
+        private final Capacity total;
+        private final Map<String, Capacity> indexes;
+        private final Map<String, Capacity> operations;
+        private final Capacity peakPerSecond;
+        private final Capacity averagePerSecond;
+        private final Map<String, Capacity> hotPartitionKeys;
+
+        TableCapacity(String tableName, Capacity total, Map<String, Capacity> indexes, Map<String, Capacity> operations,
+                      Capacity peakPerSecond, Capacity averagePerSecond, Map<String, Capacity> hotPartitionKeys) {
+            this.tableName = tableName;
+            this.total = total;
+            this.indexes = Collections.unmodifiableMap(indexes);
+            this.operations = Collections.unmodifiableMap(operations);
+            this.peakPerSecond = peakPerSecond;
+            this.averagePerSecond = averagePerSecond;
+            this.hotPartitionKeys = Collections.unmodifiableMap(hotPartitionKeys);
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        /**
+         * @return the capacity consumed by the table, without the secondary indexes.
+         */
+        public Capacity getTotal() {
+            return total;
+        }
+
+        /**
+         * @return the capacity consumed by each secondary index, by index name.
+         */
+        public Map<String, Capacity> getIndexes() {
+            return indexes;
+        }
+
+        /**
+         * @return the capacity consumed by each operation, as {@code PutItem}, including the indexes.
+         */
+        public Map<String, Capacity> getOperations() {
+            return operations;
+        }
+
+        /**
+         * @return the highest capacity consumed in one second, including the indexes.
+         */
+        public Capacity getPeakPerSecond() {
+            return peakPerSecond;
+        }
+
+        /**
+         * @return the average capacity consumed per second, from the first to the
+         * last request on the table, including the indexes.
+         */
+        public Capacity getAveragePerSecond() {
+            return averagePerSecond;
+        }
+
+        /**
+         * @return the partition keys that consumed the most capacity on the table, the hottest first.
+         */
+        public Map<String, Capacity> getHotPartitionKeys() {
+            return hotPartitionKeys;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder();
+            report.append("Table ").append(tableName).append(": ").append(total).append('\n');
+            report.append("  peak per second: ").append(peakPerSecond).append('\n');
+            report.append("  average per second: ").append(averagePerSecond).append('\n');
+            append(report, "index", indexes);
+            append(report, "operation", operations);
+            append(report, "partition key", hotPartitionKeys);
+            return report.toString();
+        }
+
+        private static void append(StringBuilder report, String label, Map<String, Capacity> capacities) {
+            for (Map.Entry<String, Capacity> capacity : capacities.entrySet()) {
+                report.append("  ").append(label).append(' ').append(capacity.getKey())
+                        .append(": ").append(capacity.getValue()).append('\n');
+            }
+        }
+
+    }
+
+}
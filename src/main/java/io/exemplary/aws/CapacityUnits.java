@@ -0,0 +1,154 @@
+/**
+ * Copyright 2017 Alessandro Simi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.exemplary.aws;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Capacity units consumed by the requests following the DynamoDB rules:
+ * reads are rounded to 4 KB and cost half when eventually consistent,
+ * writes are rounded to 1 KB.
+ */
+class CapacityUnits {
+
+    private final static Charset UTF_8 = Charset.forName("UTF-8");
+    private final static int READ_UNIT_SIZE = 4096;
+    private final static int WRITE_UNIT_SIZE = 1024;
+    private final static int INDEX_ITEM_OVERHEAD = 100;
+    private final static int CONTAINER_OVERHEAD = 3;
+    private final static int CONTAINER_ELEMENT_OVERHEAD = 1;
+
+    private CapacityUnits() {}
+
+    static double read(long size, boolean consistentRead) {
+        long units = units(size, READ_UNIT_SIZE);
+        return consistentRead ? units : units / 2.0;
+    }
+
+    static double write(long size) {
+        return units(size, WRITE_UNIT_SIZE);
+    }
+
+    /**
+     * The write on the table costs as the biggest between the item
+     * before and after the write.
+     */
+    static double write(Map<String, AttributeValue> oldItem, Map<String, AttributeValue> newItem) {
+        return write(Math.max(sizeOf(oldItem), sizeOf(newItem)));
+    }
+
+    /**
+     * The write on a secondary index costs nothing if the projected attributes
+     * did not change, one write if the entry is added, updated or removed and
+     * two writes if the index key changed.
+     */
+    static double write(TableSchema.Index index, Map<String, AttributeValue> oldItem, Map<String, AttributeValue> newItem) {
+        Map<String, AttributeValue> oldEntry = index.contains(oldItem) ? index.projectionOf(oldItem) : null;
+        Map<String, AttributeValue> newEntry = index.contains(newItem) ? index.projectionOf(newItem) : null;
+        if (oldEntry == null && newEntry == null) return 0;
+        if (oldEntry != null && newEntry != null && sameKey(index, oldItem, newItem)) {
+            if (oldEntry.equals(newEntry)) return 0;
+            return write(Math.max(indexSizeOf(oldEntry), indexSizeOf(newEntry)));
+        }
+        double units = 0;
+        if (oldEntry != null) units += write(indexSizeOf(oldEntry));
+        if (newEntry != null) units += write(indexSizeOf(newEntry));
+        return units;
+    }
+
+    private static boolean sameKey(TableSchema.Index index, Map<String, AttributeValue> oldItem, Map<String, AttributeValue> newItem) {
+        for (String name : index.keyNames) {
+            if (!oldItem.get(name).equals(newItem.get(name))) return false;
+        }
+        return true;
+    }
+
+    private static long units(long size, int unitSize) {
+        return Math.max(1, (size + unitSize - 1) / unitSize);
+    }
+
+    private static long indexSizeOf(Map<String, AttributeValue> entry) {
+        return sizeOf(entry) + INDEX_ITEM_OVERHEAD;
+    }
+
+    static long sizeOf(Map<String, AttributeValue> item) {
+        if (item == null) return 0;
+        long size = 0;
+        for (Map.Entry<String, AttributeValue> attribute : item.entrySet()) {
+            size += sizeOf(attribute.getKey()) + sizeOf(attribute.getValue());
+        }
+        return size;
+    }
+
+    static long sizeOf(List<Map<String, AttributeValue>> items) {
+        long size = 0;
+        if (items != null) for (Map<String, AttributeValue> item : items) {
+            size += sizeOf(item);
+        }
+        return size;
+    }
+
+    private static long sizeOf(AttributeValue value) {
+        if (value == null) return 0;
+        if (value.getS() != null) return sizeOf(value.getS());
+        if (value.getN() != null) return sizeOfNumber(value.getN());
+        if (value.getB() != null) return sizeOf(value.getB());
+        if (value.getBOOL() != null || value.getNULL() != null) return 1;
+        long size = 0;
+        if (value.getSS() != null) for (String string : value.getSS()) size += sizeOf(string);
+        if (value.getNS() != null) for (String number : value.getNS()) size += sizeOfNumber(number);
+        if (value.getBS() != null) for (ByteBuffer binary : value.getBS()) size += sizeOf(binary);
+        if (value.getL() != null) {
+            size += CONTAINER_OVERHEAD;
+            for (AttributeValue element : value.getL()) size += sizeOf(element) + CONTAINER_ELEMENT_OVERHEAD;
+        }
+        if (value.getM() != null) {
+            size += CONTAINER_OVERHEAD;
+            for (Map.Entry<String, AttributeValue> element : value.getM().entrySet()) {
+                size += sizeOf(element.getKey()) + sizeOf(element.getValue()) + CONTAINER_ELEMENT_OVERHEAD;
+            }
+        }
+        return size;
+    }
+
+    private static long sizeOf(String string) {
+        return string.getBytes(UTF_8).length;
+    }
+
+    private static long sizeOf(ByteBuffer binary) {
+        return binary.remaining();
+    }
+
+    /**
+     * A number takes one byte every two significant digits plus one byte.
+     */
+    private static long sizeOfNumber(String number) {
+        try {
+            BigDecimal value = new BigDecimal(number);
+            int digits = value.signum() == 0 ? 1 : value.stripTrailingZeros().unscaledValue().abs().toString().length();
+            return (digits + 1) / 2 + 1;
+        } catch (NumberFormatException e) {
+            return sizeOf(number);
+        }
+    }
+
+}
@@ -29,6 +29,10 @@ import com.amazonaws.services.dynamodbv2.model.ListTablesResult;
 import java.io.File;
 import java.net.ServerSocket;
 import java.net.URISyntaxException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 /**
@@ -43,12 +47,17 @@ public class DynamoDBServer {
     private final int port;
     private final RequestHandler requestHandler;
     private final DynamoDBProxyServer server;
+    private final ExpirySweeper expirySweeper;
+    private boolean warmUpOnStart = false;
+    private long warmUpMaxDurationInMillis = WarmUp.MAX_DURATION_IN_MILLIS;
+    private volatile FutureTask<Long> ready = readyWithoutWarmUp();
 
     public DynamoDBServer(int port) {
         this.port = port;
         requestHandler = new RequestHandler();
-        LocalDynamoDBServerHandler serverHandler = new LocalDynamoDBServerHandler(requestHandler, EMPTY_CORS_PARAMS);
+        LocalDynamoDBServerHandler serverHandler = new ServerHandler(requestHandler, EMPTY_CORS_PARAMS);
         server = new DynamoDBProxyServer(port, serverHandler);
+        expirySweeper = new ExpirySweeper(requestHandler);
         Runtime.getRuntime().addShutdownHook(new Thread() {
             public void run() {
                 DynamoDBServer.this.stop();
@@ -76,16 +85,58 @@ public class DynamoDBServer {
     }
 
     /**
-     * Start the server.
+     * Start the server. If the warm up is enabled it runs in background
+     * and {@link #ready()} completes when it is over.
      */
     public void start() {
         loadSqlLiteLibraries();
         try {
             logger.info("Start dynamo db server on port " + port);
             server.start();
+            expirySweeper.start();
         } catch (Exception e) {
             throw new IllegalStateException("Impossible to start Dynamo DB Server", e);
         }
+        if (warmUpOnStart) {
+            ready = new FutureTask<Long>(new WarmUp(getEndpoint(), requestHandler, warmUpMaxDurationInMillis));
+            Thread warmUp = new Thread(ready, "dynamo-db-warm-up");
+            warmUp.setDaemon(true);
+            warmUp.start();
+        } else {
+            ready = readyWithoutWarmUp();
+        }
+    }
+
+    private static FutureTask<Long> readyWithoutWarmUp() {
+        FutureTask<Long> ready = new FutureTask<Long>(new Callable<Long>() {
+            public Long call() {
+                return 0L;
+            }
+        });
+        ready.run();
+        return ready;
+    }
+
+    /**
+     * Warm up the server when started, running a mix of requests against
+     * a scratch table until the latency settles, so the first real requests
+     * are not slowed down by the code still being interpreted.
+     * @param warmUpOnStart {@code true} to warm up the server on start.
+     */
+    public void setWarmUpOnStart(boolean warmUpOnStart) {
+        this.warmUpOnStart = warmUpOnStart;
+    }
+
+    void setWarmUpMaxDuration(long duration, TimeUnit unit) {
+        this.warmUpMaxDurationInMillis = unit.toMillis(duration);
+    }
+
+    /**
+     * @return the future completed when the server is ready to be measured,
+     * with the warm up time in milliseconds or zero if there was no warm up.
+     */
+    public Future<Long> ready() {
+        return ready;
     }
 
     private void loadSqlLiteLibraries() {
@@ -140,6 +191,7 @@ public class DynamoDBServer {
     public void stop() {
         try {
             logger.info("Stop dynamo db server");
+            expirySweeper.stop();
             server.stop();
         } catch (Exception e) {
             throw new IllegalStateException("Impossible to stop Dynamo DB Server", e);
@@ -157,11 +209,33 @@ public class DynamoDBServer {
     /**
      * Reset the server status, bringing it back to the same position
      * after the creation. All the tables will be deleted, forced
-     * errors cleaned and provisioned throughput reset.
+     * errors cleaned, provisioned throughput, time to live and
+     * consumed capacity reset.
      */
     public void reset() {
         doesNotFail();
         deleteAllTables();
+        requestHandler.resetTimeToLive();
+        requestHandler.resetCapacity();
+    }
+
+    /**
+     * Enable the capacity accounting, disabled by default. Each write
+     * reads the item it replaces to charge the secondary indexes, so the
+     * accounting costs an extra read per write and it is not atomic with
+     * the write: a concurrent write on the same item can skew it.
+     */
+    public void setCapacityAccounting(boolean capacityAccounting) {
+        requestHandler.setCapacityAccounting(capacityAccounting);
+    }
+
+    /**
+     * @return the capacity units consumed so far by the requests, per table,
+     * computed as DynamoDB would charge them. Empty unless the capacity
+     * accounting is enabled.
+     */
+    public CapacityReport capacityReport() {
+        return requestHandler.capacityReport();
     }
 
     private void deleteAllTables() {
@@ -174,6 +248,60 @@ public class DynamoDBServer {
         client.shutdown();
     }
 
+    /**
+     * Enable the time to live of the table. The items with a number attribute,
+     * representing the expiry time in epoch seconds, are deleted by the server
+     * once expired, including the items already in the table.
+     * @param tableName the table name.
+     * @param attributeName the name of the attribute holding the expiry time.
+     */
+    public void enableTimeToLive(String tableName, String attributeName) {
+        if (!requestHandler.updateTimeToLive(tableName, attributeName, true)) {
+            throw new IllegalArgumentException("Table " + tableName + " not found");
+        }
+    }
+
+    /**
+     * Disable the time to live of the table, the items never expire.
+     * @param tableName the table name.
+     */
+    public void disableTimeToLive(String tableName) {
+        if (!requestHandler.updateTimeToLive(tableName, null, false)) {
+            throw new IllegalArgumentException("Table " + tableName + " not found");
+        }
+    }
+
+    /**
+     * @param tableName the table name.
+     * @return the name of the time to live attribute or {@code null} if
+     * the time to live is not enabled for the table.
+     */
+    public String describeTimeToLive(String tableName) {
+        return requestHandler.describeTimeToLive(tableName);
+    }
+
+    /**
+     * Set how fast the expired items are deleted. By default 25 items
+     * are deleted every second.
+     * @param itemsPerSweep the maximum number of items deleted each time.
+     * @param period the time between two deletions.
+     * @param unit the time unit of the period.
+     */
+    public void setExpiryRate(int itemsPerSweep, long period, TimeUnit unit) {
+        expirySweeper.setRate(itemsPerSweep, period, unit);
+    }
+
+    /**
+     * Move forward the server clock used to expire the items and delete
+     * all the items expired at the new time before returning.
+     * @param amount the time to add to the clock.
+     * @param unit the time unit of the amount.
+     */
+    public void advanceClock(long amount, TimeUnit unit) {
+        requestHandler.advanceClock(amount, unit);
+        expirySweeper.sweepAll();
+    }
+
     /**
      * The server behaves normally without any forces failures.
      */
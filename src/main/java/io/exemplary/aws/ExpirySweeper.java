@@ -0,0 +1,97 @@
+/**
+ * Copyright 2017 Alessandro Simi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.exemplary.aws;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Background task that deletes the expired items in small batches.
+ */
+class ExpirySweeper {
+
+    private static final Logger logger = Logger.getLogger(ExpirySweeper.class.getName());
+
+    private final static int DEFAULT_ITEMS_PER_SWEEP = 25;
+    private final static long DEFAULT_PERIOD_IN_MILLIS = 1000;
+
+    private final RequestHandler requestHandler;
+    private volatile int itemsPerSweep = DEFAULT_ITEMS_PER_SWEEP;
+    private long period = DEFAULT_PERIOD_IN_MILLIS;
+    private TimeUnit unit = TimeUnit.MILLISECONDS;
+    private ScheduledExecutorService executor = null;
+
+    ExpirySweeper(RequestHandler requestHandler) {
+        this.requestHandler = requestHandler;
+    }
+
+    synchronized void setRate(int itemsPerSweep, long period, TimeUnit unit) {
+        if (itemsPerSweep <= 0) throw new IllegalArgumentException("The items per sweep should be positive");
+        if (period <= 0) throw new IllegalArgumentException("The sweep period should be positive");
+        this.itemsPerSweep = itemsPerSweep;
+        this.period = period;
+        this.unit = unit;
+        if (executor != null) {
+            stop();
+            start();
+        }
+    }
+
+    synchronized void start() {
+        if (executor != null) return;
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "dynamo-db-expiry-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                sweep();
+            }
+        }, period, period, unit);
+    }
+
+    synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Delete all the items expired so far, batch after batch.
+     */
+    void sweepAll() {
+        while (requestHandler.expireItems(itemsPerSweep) > 0) {
+            // Next batch
+        }
+    }
+
+    private void sweep() {
+        try {
+            requestHandler.expireItems(itemsPerSweep);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Impossible to delete the expired items", e);
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2017 Alessandro Simi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.exemplary.aws;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.services.dynamodbv2.exceptions.DynamoDBLocalServiceException;
+
+/**
+ * Makes the requests fail with the injected failure. The check runs
+ * before every request, so it does not allocate: without a failure it is
+ * a single read and when the failure applies the same exception, created
+ * once without stack trace, is thrown every time.
+ */
+class FailureInjector {
+
+    private volatile Failure failure = null;
+
+    void failsWith(int responseCode, String errorCode, String errorMessage, ErrorCondition<? extends AmazonWebServiceRequest> errorCondition) {
+        failure = new Failure(responseCode, errorCode, errorMessage, errorCondition);
+    }
+
+    void doesNotFail() {
+        failure = null;
+    }
+
+    void injectFailureFor(AmazonWebServiceRequest req) {
+        Failure failure = this.failure;
+        if (failure != null && failure.appliesTo(req)) {
+            throw failure.exception;
+        }
+    }
+
+    private static class Failure {
+
+        private final InjectedFailureException exception;
+        private final ErrorCondition<AmazonWebServiceRequest> errorCondition;
+        private final Class<?> type;
+
+        @SuppressWarnings("unchecked")
+        private Failure(int responseCode, String errorCode, String errorMessage, ErrorCondition<? extends AmazonWebServiceRequest> errorCondition) {
+            this.exception = new InjectedFailureException(errorMessage);
+            this.exception.setErrorCode(errorCode);
+            this.exception.setStatusCode(responseCode);
+            this.errorCondition = (ErrorCondition<AmazonWebServiceRequest>) errorCondition;
+            this.type = errorCondition == null ? null : errorCondition.type;
+        }
+
+        private boolean appliesTo(AmazonWebServiceRequest req) {
+            return errorCondition == null || (type == req.getClass() && errorCondition.shouldFail(req));
+        }
+
+    }
+
+    static class InjectedFailureException extends DynamoDBLocalServiceException {
+
+        private InjectedFailureException(String message) {
+            super(message);
+        }
+
+        /**
+         * The stack trace would point to the injector, not to the
+         * failure cause, so it is not worth to fill it.
+         */
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+
+    }
+
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright 2017 Alessandro Simi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.exemplary.aws;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Response that compresses the body while it is written. The small
+ * bodies are sent as they are, the compression would not pay off.
+ * The CRC32 header of the body is held until it is clear if the body
+ * is compressed: it would not match the compressed body, so it is dropped.
+ */
+class GzipResponse extends HttpServletResponseWrapper {
+
+    private final static int MIN_GZIP_SIZE = 1024;
+    private final static int GZIP_BUFFER_SIZE = 8192;
+    private final static String CONTENT_LENGTH = "Content-Length";
+    private final static String CRC32 = "x-amz-crc32";
+
+    private final HttpServletResponse response;
+    private final GzipOutputStream stream = new GzipOutputStream();
+    private PrintWriter writer = null;
+    private String crc32 = null;
+
+    GzipResponse(HttpServletResponse response) {
+        super(response);
+        this.response = response;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (writer != null) throw new IllegalStateException("The writer has been already used");
+        return stream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+        return writer;
+    }
+
+    /**
+     * The content length is known only at the end, when it is clear
+     * if the body is compressed or not.
+     */
+    @Override
+    public void setContentLength(int length) {
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        if (CRC32.equalsIgnoreCase(name)) holdCrc32(value);
+        else if (!CONTENT_LENGTH.equalsIgnoreCase(name)) super.setHeader(name, value);
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        if (CRC32.equalsIgnoreCase(name)) holdCrc32(value);
+        else if (!CONTENT_LENGTH.equalsIgnoreCase(name)) super.addHeader(name, value);
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        if (CRC32.equalsIgnoreCase(name)) holdCrc32(Integer.toString(value));
+        else if (!CONTENT_LENGTH.equalsIgnoreCase(name)) super.setIntHeader(name, value);
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+        if (CRC32.equalsIgnoreCase(name)) holdCrc32(Integer.toString(value));
+        else if (!CONTENT_LENGTH.equalsIgnoreCase(name)) super.addIntHeader(name, value);
+    }
+
+    private void holdCrc32(String value) {
+        if (!stream.isCompressing()) crc32 = value;
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null) writer.flush();
+        stream.flush();
+    }
+
+    @Override
+    public void resetBuffer() {
+        if (stream.isCompressing()) throw new IllegalStateException("The response has been already committed");
+        if (stream.buffer != null) stream.buffer.reset();
+        super.resetBuffer();
+    }
+
+    /**
+     * Complete the body, sending what is still buffered.
+     */
+    void finish() throws IOException {
+        if (writer != null) writer.flush();
+        stream.finish();
+    }
+
+    private class GzipOutputStream extends ServletOutputStream {
+
+        private ByteArrayOutputStream buffer = null;
+        private GzipDeflaterStream gzip = null;
+        private boolean finished = false;
+
+        boolean isCompressing() {
+            return gzip != null;
+        }
+
+        /**
+         * The buffer is created on the first write, the bodies bigger
+         * than the buffer in a single write go straight to the compression.
+         */
+        private int size() {
+            return buffer == null ? 0 : buffer.size();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (gzip == null && size() + 1 > MIN_GZIP_SIZE) startCompressing();
+            if (gzip == null && buffer == null) buffer = new ByteArrayOutputStream(MIN_GZIP_SIZE);
+            if (gzip == null) buffer.write(b);
+            else gzip.write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (gzip == null && size() + length > MIN_GZIP_SIZE) startCompressing();
+            if (gzip == null && buffer == null) buffer = new ByteArrayOutputStream(MIN_GZIP_SIZE);
+            if (gzip == null) buffer.write(bytes, offset, length);
+            else gzip.write(bytes, offset, length);
+        }
+
+        /**
+         * Until the body is small it is kept in memory, so the
+         * flush is meaningful only once the compression started.
+         */
+        @Override
+        public void flush() throws IOException {
+            if (gzip != null) gzip.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+        }
+
+        private void startCompressing() throws IOException {
+            response.setHeader("Content-Encoding", "gzip");
+            response.addHeader("Vary", "Accept-Encoding");
+            crc32 = null;
+            gzip = new GzipDeflaterStream(response.getOutputStream(), GZIP_BUFFER_SIZE);
+            if (buffer != null) {
+                buffer.writeTo(gzip);
+                buffer = null;
+            }
+        }
+
+        void finish() throws IOException {
+            if (finished) return;
+            finished = true;
+            if (gzip == null) {
+                if (crc32 != null) response.setHeader(CRC32, crc32);
+                response.setContentLength(size());
+                if (buffer != null) buffer.writeTo(response.getOutputStream());
+            } else {
+                try {
+                    gzip.finish();
+                } finally {
+                    gzip.end();
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Gzip stream that releases the native memory of its deflater
+     * without closing the response stream.
+     */
+    private static class GzipDeflaterStream extends GZIPOutputStream {
+
+        private GzipDeflaterStream(OutputStream out, int size) throws IOException {
+            super(out, size);
+        }
+
+        private void end() {
+            def.end();
+        }
+
+    }
+
+}
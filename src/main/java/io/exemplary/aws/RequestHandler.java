@@ -15,11 +15,17 @@
  */
 package io.exemplary.aws;
 
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.AmazonWebServiceRequest;
 import com.amazonaws.services.dynamodbv2.exceptions.DynamoDBLocalServiceException;
 import com.amazonaws.services.dynamodbv2.local.server.LocalDynamoDBRequestHandler;
 import com.amazonaws.services.dynamodbv2.model.*;
 
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
 class RequestHandler extends LocalDynamoDBRequestHandler {
 
     private final static int HIGH_AUTHORITY_LEVEL = 0;
@@ -28,141 +34,622 @@ class RequestHandler extends LocalDynamoDBRequestHandler {
     private final static Boolean NON_SHARED_DB = false;
     private final static Boolean NON_DELAYED_TRANSIENT_STATUSES = false;
 
-    private DynamoDBServer.InjectedFailure injectedFailure = null;
+    private final static String EXPIRY_CONDITION = "#ttl <= :now";
+
+    private final static String BATCH_GET_ITEM = "BatchGetItem";
+    private final static String BATCH_WRITE_ITEM = "BatchWriteItem";
+    private final static String DELETE_ITEM = "DeleteItem";
+    private final static String GET_ITEM = "GetItem";
+    private final static String PUT_ITEM = "PutItem";
+    private final static String QUERY = "Query";
+    private final static String SCAN = "Scan";
+    private final static String UPDATE_ITEM = "UpdateItem";
+    private final static String CONDITIONAL_CHECK_FAILED = "ConditionalCheckFailedException";
+
+    private final FailureInjector failureInjector = new FailureInjector();
+    private final TimeToLive timeToLive = new TimeToLive();
+    private final Set<List<String>> namespaces = Collections.newSetFromMap(new ConcurrentHashMap<List<String>, Boolean>());
+    private final CapacityMeter capacityMeter = new CapacityMeter();
+    private volatile boolean capacityAccounting = false;
+    private final TableMap<TableSchema> schemas = new TableMap<TableSchema>();
 
     RequestHandler() throws DynamoDBLocalServiceException {
         super(HIGH_AUTHORITY_LEVEL, RUN_IN_MEMORY, EMPTY_DB_PATH, NON_SHARED_DB, NON_DELAYED_TRANSIENT_STATUSES);
     }
 
     void setInjectedFailure(DynamoDBServer.InjectedFailure injectedFailure) {
-        this.injectedFailure = injectedFailure;
+        failureInjector.failsWith(
+            injectedFailure.responseCode,
+            injectedFailure.errorCode,
+            injectedFailure.errorMessage,
+            injectedFailure.errorCondition
+        );
     }
 
     void doesNotFail() {
-        this.injectedFailure = null;
-    }
-
-    @SuppressWarnings("unchecked")
-    private void injectFailureFor(AmazonWebServiceRequest req) {
-        if (injectedFailure != null) {
-            ErrorCondition<AmazonWebServiceRequest> errorCondition = (ErrorCondition<AmazonWebServiceRequest>) injectedFailure.errorCondition;
-            if (errorCondition == null) {
-                failsWith(injectedFailure);
-            } else if (errorCondition.type.equals(req.getClass())) {
-                if (errorCondition.shouldFail(req)) {
-                    failsWith(injectedFailure);
-                }
+        failureInjector.doesNotFail();
+    }
+
+    /**
+     * The warm up requests are not affected by the injected failures,
+     * they would leave the scratch table behind.
+     */
+    void injectFailureFor(String accessKey, AmazonWebServiceRequest req) {
+        if (!WarmUp.ACCESS_KEY.equals(accessKey)) {
+            failureInjector.injectFailureFor(req);
+        }
+    }
+
+    /**
+     * Update the time to live of the table under every access key and region
+     * it exists. When enabled, the items already in the table are indexed.
+     * @return {@code true} if the table has been found.
+     */
+    boolean updateTimeToLive(String tableName, String attributeName, boolean enabled) {
+        boolean found = false;
+        for (List<String> namespace : namespaces) {
+            String accessKey = namespace.get(0);
+            String region = namespace.get(1);
+            if (!exists(accessKey, region, tableName)) continue;
+            found = true;
+            if (enabled) {
+                timeToLive.enable(accessKey, region, tableName, attributeName);
+                indexExpiringItems(accessKey, region, tableName);
+            } else {
+                timeToLive.disable(accessKey, region, tableName);
             }
         }
+        return found;
+    }
+
+    String describeTimeToLive(String tableName) {
+        for (List<String> namespace : namespaces) {
+            String attributeName = timeToLive.attributeOf(namespace.get(0), namespace.get(1), tableName);
+            if (attributeName != null) return attributeName;
+        }
+        return null;
+    }
+
+    private boolean exists(String accessKey, String region, String tableName) {
+        try {
+            super.describeTable(accessKey, region, new DescribeTableRequest(tableName));
+            return true;
+        } catch (AmazonServiceException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Scan the table once to index the items written before the time to live was enabled.
+     */
+    private void indexExpiringItems(String accessKey, String region, String tableName) {
+        TableSchema schema = schemaOf(accessKey, region, tableName);
+        Map<String, AttributeValue> lastKey = null;
+        do {
+            ScanResult page = super.scan(accessKey, region, new ScanRequest(tableName).withExclusiveStartKey(lastKey));
+            for (Map<String, AttributeValue> item : page.getItems()) {
+                timeToLive.track(accessKey, region, tableName, schema.keyOf(item), item);
+            }
+            lastKey = page.getLastEvaluatedKey();
+        } while (lastKey != null && !lastKey.isEmpty());
+    }
+
+    void advanceClock(long amount, TimeUnit unit) {
+        timeToLive.advanceClock(amount, unit);
+    }
+
+    void resetTimeToLive() {
+        timeToLive.reset();
+    }
+
+    void setCapacityAccounting(boolean capacityAccounting) {
+        this.capacityAccounting = capacityAccounting;
+    }
+
+    CapacityReport capacityReport() {
+        return capacityMeter.report();
     }
 
-    private void failsWith(DynamoDBServer.InjectedFailure injectedFailure) {
-        DynamoDBLocalServiceException exception = new DynamoDBLocalServiceException(injectedFailure.errorMessage);
-        exception.setErrorCode(injectedFailure.errorCode);
-        exception.setStatusCode(injectedFailure.responseCode);
-        throw exception;
+    void resetCapacity() {
+        capacityMeter.reset();
+    }
+
+    void resetCapacity(String accessKey, String tableName) {
+        capacityMeter.reset(accessKey, tableName);
+    }
+
+    /**
+     * Delete the items expired, the oldest first. The delete is conditional
+     * on the item being still expired, so an item updated in the meanwhile
+     * is not removed.
+     * @param limit the maximum number of items to delete.
+     * @return the number of expired items found.
+     */
+    int expireItems(int limit) {
+        List<TimeToLive.ExpiringItem> expired = timeToLive.pollExpired(limit);
+        for (TimeToLive.ExpiringItem item : expired) {
+            String attributeName = timeToLive.attributeOf(item.accessKey, item.region, item.tableName);
+            if (attributeName == null) continue;
+            Map<String, String> names = new HashMap<String, String>();
+            names.put("#ttl", attributeName);
+            Map<String, AttributeValue> values = new HashMap<String, AttributeValue>();
+            values.put(":now", new AttributeValue().withN(Long.toString(timeToLive.now())));
+            DeleteItemRequest request = new DeleteItemRequest()
+                    .withTableName(item.tableName)
+                    .withKey(item.key)
+                    .withConditionExpression(EXPIRY_CONDITION)
+                    .withExpressionAttributeNames(names)
+                    .withExpressionAttributeValues(values);
+            try {
+                super.deleteItem(item.accessKey, item.region, request);
+            } catch (AmazonServiceException e) {
+                // The item has been updated or deleted in the meanwhile
+            }
+        }
+        return expired.size();
+    }
+
+    /**
+     * @param key the primary key of the item, or any map containing it.
+     */
+    void track(String accessKey, String region, String tableName, Map<String, AttributeValue> key, Map<String, AttributeValue> item) {
+        if (timeToLive.attributeOf(accessKey, region, tableName) != null) {
+            timeToLive.track(accessKey, region, tableName, schemaOf(accessKey, region, tableName).keyOf(key), item);
+        }
+    }
+
+    void untrack(String accessKey, String region, String tableName, Map<String, AttributeValue> key) {
+        if (timeToLive.attributeOf(accessKey, region, tableName) != null) {
+            timeToLive.untrack(accessKey, region, tableName, schemaOf(accessKey, region, tableName).keyOf(key));
+        }
+    }
+
+    /**
+     * @return {@code true} if any table has the time to live enabled,
+     * otherwise the batch writes skip the tracking of their items.
+     */
+    boolean tracksWrites() {
+        return timeToLive.isEnabled();
+    }
+
+    /**
+     * The schema is described once and cached, the lookup does not allocate.
+     */
+    TableSchema schemaOf(String accessKey, String region, String tableName) {
+        TableSchema schema = schemas.get(accessKey, region, tableName);
+        if (schema == null) {
+            TableDescription table = super.describeTable(accessKey, region, new DescribeTableRequest(tableName)).getTable();
+            schema = new TableSchema(table);
+            schemas.put(accessKey, region, tableName, schema);
+        }
+        return schema;
+    }
+
+    private Map<String, AttributeValue> currentItem(String accessKey, String region, String tableName, Map<String, AttributeValue> key) {
+        GetItemRequest request = new GetItemRequest(tableName, key, true);
+        return super.getItem(accessKey, region, request).getItem();
+    }
+
+    /**
+     * @return the item stored before the write or {@code null} if the item does not exist
+     * or the write request is not valid, in that case the write fails with the proper error.
+     */
+    private Map<String, AttributeValue> previousItem(String accessKey, String region, String tableName, Map<String, AttributeValue> item) {
+        if (item == null) return null;
+        try {
+            return currentItem(accessKey, region, tableName, schemaOf(accessKey, region, tableName).keyOf(item));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the full items of the keys, the reads are charged on them even when projected.
+     */
+    private List<Map<String, AttributeValue>> currentItems(String accessKey, String region, String tableName, List<Map<String, AttributeValue>> keys) {
+        List<Map<String, AttributeValue>> items = new ArrayList<Map<String, AttributeValue>>();
+        for (Map<String, AttributeValue> key : keys) {
+            Map<String, AttributeValue> item = currentItem(accessKey, region, tableName, key);
+            if (item != null) items.add(item);
+        }
+        return items;
+    }
+
+    /**
+     * @return the items evaluated by the query, the reads are charged on them
+     * even when filtered out or projected.
+     */
+    private List<Map<String, AttributeValue>> evaluatedItems(String accessKey, String region, QueryRequest req, Integer scannedCount) {
+        if (scannedCount == null || scannedCount == 0) return Collections.emptyList();
+        QueryRequest evaluated = new QueryRequest(req.getTableName())
+                .withIndexName(req.getIndexName())
+                .withKeyConditions(req.getKeyConditions())
+                .withKeyConditionExpression(req.getKeyConditionExpression())
+                .withExpressionAttributeNames(usedIn(req.getKeyConditionExpression(), req.getExpressionAttributeNames()))
+                .withExpressionAttributeValues(usedIn(req.getKeyConditionExpression(), req.getExpressionAttributeValues()))
+                .withExclusiveStartKey(req.getExclusiveStartKey())
+                .withScanIndexForward(req.getScanIndexForward())
+                .withConsistentRead(req.getConsistentRead())
+                .withLimit(scannedCount);
+        return super.query(accessKey, region, evaluated).getItems();
+    }
+
+    /**
+     * @return the items evaluated by the scan, the reads are charged on them
+     * even when filtered out or projected.
+     */
+    private List<Map<String, AttributeValue>> evaluatedItems(String accessKey, String region, ScanRequest req, Integer scannedCount) {
+        if (scannedCount == null || scannedCount == 0) return Collections.emptyList();
+        ScanRequest evaluated = new ScanRequest(req.getTableName())
+                .withIndexName(req.getIndexName())
+                .withExclusiveStartKey(req.getExclusiveStartKey())
+                .withConsistentRead(req.getConsistentRead())
+                .withSegment(req.getSegment())
+                .withTotalSegments(req.getTotalSegments())
+                .withLimit(scannedCount);
+        return super.scan(accessKey, region, evaluated).getItems();
+    }
+
+    /**
+     * @return the placeholders used by the expression or {@code null} if none,
+     * DynamoDB rejects the requests with unused placeholders.
+     */
+    private static <V> Map<String, V> usedIn(String expression, Map<String, V> placeholders) {
+        if (expression == null || placeholders == null) return null;
+        Map<String, V> used = new HashMap<String, V>();
+        for (Map.Entry<String, V> placeholder : placeholders.entrySet()) {
+            if (Pattern.compile(Pattern.quote(placeholder.getKey()) + "(?!\\w)").matcher(expression).find()) {
+                used.put(placeholder.getKey(), placeholder.getValue());
+            }
+        }
+        return used.isEmpty() ? null : used;
+    }
+
+    private static boolean isProjected(String projectionExpression, List<String> attributesToGet) {
+        return projectionExpression != null || attributesToGet != null;
+    }
+
+    private static boolean isNarrowed(String filterExpression, Map<String, Condition> filter, String projectionExpression,
+                                      List<String> attributesToGet, String select) {
+        return filterExpression != null || filter != null || isProjected(projectionExpression, attributesToGet)
+                || Select.COUNT.toString().equals(select) || Select.SPECIFIC_ATTRIBUTES.toString().equals(select);
+    }
+
+    /**
+     * @return the base item with the attributes replaced.
+     */
+    private static Map<String, AttributeValue> overlay(Map<String, AttributeValue> base, Map<String, AttributeValue> attributes) {
+        Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+        if (base != null) item.putAll(base);
+        if (attributes != null) item.putAll(attributes);
+        return item;
+    }
+
+    private static boolean isConditionalCheckFailed(AmazonServiceException e) {
+        return e instanceof ConditionalCheckFailedException || CONDITIONAL_CHECK_FAILED.equals(e.getErrorCode());
+    }
+
+    private void recordRead(String accessKey, String region, String tableName, String indexName, String operation,
+                            String partitionKey, long size, Boolean consistentRead) {
+        double read = CapacityUnits.read(size, Boolean.TRUE.equals(consistentRead));
+        capacityMeter.record(accessKey, region, tableName, indexName, operation, partitionKey, read, 0);
+    }
+
+    /**
+     * Record the write on the table and on every secondary index affected.
+     */
+    private void recordWrite(String accessKey, String region, String tableName, String operation, Map<String, AttributeValue> key,
+                             Map<String, AttributeValue> oldItem, Map<String, AttributeValue> newItem) {
+        TableSchema schema = schemaOf(accessKey, region, tableName);
+        capacityMeter.record(accessKey, region, tableName, null, operation, partitionKeyOf(schema, key), 0, CapacityUnits.write(oldItem, newItem));
+        for (TableSchema.Index index : schema.indexes) {
+            capacityMeter.record(accessKey, region, tableName, index.name, operation, null, 0, CapacityUnits.write(index, oldItem, newItem));
+        }
+    }
+
+    /**
+     * A failed conditional write consumes the write capacity anyway,
+     * the secondary indexes are not touched.
+     */
+    private void recordFailedWrite(String accessKey, String region, String tableName, String operation,
+                                   Map<String, AttributeValue> key, Map<String, AttributeValue> item) {
+        TableSchema schema = schemaOf(accessKey, region, tableName);
+        capacityMeter.record(accessKey, region, tableName, null, operation, partitionKeyOf(schema, key), 0, CapacityUnits.write(null, item));
+    }
+
+    private static String partitionKeyOf(TableSchema schema, Map<String, AttributeValue> item) {
+        AttributeValue value = item.get(schema.hashKey);
+        return value == null ? null : TableSchema.stringOf(value);
     }
 
     @Override
     public BatchGetItemResult batchGetItem(String accessKey, String region, BatchGetItemRequest req) {
-        injectFailureFor(req);
-        return super.batchGetItem(accessKey, region, req);
+        injectFailureFor(accessKey, req);
+        BatchGetItemResult result = super.batchGetItem(accessKey, region, req);
+        if (!capacityAccounting) return result;
+        for (Map.Entry<String, KeysAndAttributes> table : req.getRequestItems().entrySet()) {
+            String tableName = table.getKey();
+            KeysAndAttributes keys = table.getValue();
+            TableSchema schema = schemaOf(accessKey, region, tableName);
+            List<Map<String, AttributeValue>> items = result.getResponses().get(tableName);
+            if (items != null && isProjected(keys.getProjectionExpression(), keys.getAttributesToGet())) {
+                items = currentItems(accessKey, region, tableName, keys.getKeys());
+            }
+            int found = 0;
+            if (items != null) for (Map<String, AttributeValue> item : items) {
+                recordRead(accessKey, region, tableName, null, BATCH_GET_ITEM, partitionKeyOf(schema, item), CapacityUnits.sizeOf(item), keys.getConsistentRead());
+                found++;
+            }
+            // The keys not found consume the minimum capacity
+            for (int missing = found; missing < keys.getKeys().size(); missing++) {
+                recordRead(accessKey, region, tableName, null, BATCH_GET_ITEM, null, 0, keys.getConsistentRead());
+            }
+        }
+        return result;
     }
 
     @Override
     public BatchWriteItemResult batchWriteItem(String accessKey, String region, BatchWriteItemRequest req) {
-        injectFailureFor(req);
-        return super.batchWriteItem(accessKey, region, req);
+        injectFailureFor(accessKey, req);
+        boolean accounting = capacityAccounting;
+        Map<WriteRequest, Map<String, AttributeValue>> previousItems = null;
+        if (accounting) {
+            previousItems = new IdentityHashMap<WriteRequest, Map<String, AttributeValue>>();
+            for (Map.Entry<String, List<WriteRequest>> table : req.getRequestItems().entrySet()) {
+                for (WriteRequest write : table.getValue()) {
+                    previousItems.put(write, previousItem(accessKey, region, table.getKey(), keyOf(write)));
+                }
+            }
+        }
+        BatchWriteItemResult result = super.batchWriteItem(accessKey, region, req);
+        if (!accounting && !tracksWrites()) return result;
+        for (Map.Entry<String, List<WriteRequest>> table : req.getRequestItems().entrySet()) {
+            String tableName = table.getKey();
+            boolean expiring = timeToLive.attributeOf(accessKey, region, tableName) != null;
+            if (!expiring && !accounting) continue;
+            for (WriteRequest write : table.getValue()) {
+                if (write.getPutRequest() != null) {
+                    Map<String, AttributeValue> item = write.getPutRequest().getItem();
+                    track(accessKey, region, tableName, item, item);
+                    if (accounting) recordWrite(accessKey, region, tableName, BATCH_WRITE_ITEM, item, previousItems.get(write), item);
+                } else if (write.getDeleteRequest() != null) {
+                    Map<String, AttributeValue> key = write.getDeleteRequest().getKey();
+                    untrack(accessKey, region, tableName, key);
+                    if (accounting) recordWrite(accessKey, region, tableName, BATCH_WRITE_ITEM, key, previousItems.get(write), null);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Map<String, AttributeValue> keyOf(WriteRequest write) {
+        if (write.getPutRequest() != null) return write.getPutRequest().getItem();
+        if (write.getDeleteRequest() != null) return write.getDeleteRequest().getKey();
+        return null;
     }
 
     @Override
     public CreateTableResult createTable(String accessKey, String region, CreateTableRequest req) {
-        injectFailureFor(req);
-        return super.createTable(accessKey, region, req);
+        injectFailureFor(accessKey, req);
+        CreateTableResult result = super.createTable(accessKey, region, req);
+        namespaces.add(Arrays.asList(accessKey, region));
+        return result;
     }
 
+    /**
+     * With capacity accounting the old item is requested with the delete
+     * and removed from the result if the client did not ask for it.
+     */
     @Override
     public DeleteItemResult deleteItem(String accessKey, String region, DeleteItemRequest req) {
-        injectFailureFor(req);
-        return super.deleteItem(accessKey, region, req);
+        injectFailureFor(accessKey, req);
+        if (!capacityAccounting) {
+            DeleteItemResult result = super.deleteItem(accessKey, region, req);
+            untrack(accessKey, region, req.getTableName(), req.getKey());
+            return result;
+        }
+        String returnValues = req.getReturnValues();
+        DeleteItemResult result;
+        try {
+            req.setReturnValues(ReturnValue.ALL_OLD);
+            result = super.deleteItem(accessKey, region, req);
+        } catch (AmazonServiceException e) {
+            if (isConditionalCheckFailed(e)) recordFailedWrite(accessKey, region, req.getTableName(), DELETE_ITEM, req.getKey(), null);
+            throw e;
+        } finally {
+            req.setReturnValues(returnValues);
+        }
+        Map<String, AttributeValue> oldItem = result.getAttributes();
+        if (!ReturnValue.ALL_OLD.toString().equals(returnValues)) result.setAttributes(null);
+        untrack(accessKey, region, req.getTableName(), req.getKey());
+        recordWrite(accessKey, region, req.getTableName(), DELETE_ITEM, req.getKey(), oldItem, null);
+        return result;
     }
 
     @Override
     public DeleteTableResult deleteTable(String accessKey, String region, DeleteTableRequest req) {
-        injectFailureFor(req);
-        return super.deleteTable(accessKey, region, req);
+        injectFailureFor(accessKey, req);
+        DeleteTableResult result = super.deleteTable(accessKey, region, req);
+        schemas.remove(accessKey, region, req.getTableName());
+        if (timeToLive.attributeOf(accessKey, region, req.getTableName()) != null) {
+            timeToLive.disable(accessKey, region, req.getTableName());
+        }
+        return result;
     }
 
     @Override
     public DescribeStreamResult describeStream(String accessKey, String region, DescribeStreamRequest req) {
-        injectFailureFor(req);
+        injectFailureFor(accessKey, req);
         return super.describeStream(accessKey, region, req);
     }
 
     @Override
     public DescribeTableResult describeTable(String accessKey, String region, DescribeTableRequest req) {
-        injectFailureFor(req);
+        injectFailureFor(accessKey, req);
         return super.describeTable(accessKey, region, req);
     }
 
     @Override
     public GetItemResult getItem(String accessKey, String region, GetItemRequest req) {
-        injectFailureFor(req);
-        return super.getItem(accessKey, region, req);
+        injectFailureFor(accessKey, req);
+        GetItemResult result = super.getItem(accessKey, region, req);
+        if (!capacityAccounting) return result;
+        Map<String, AttributeValue> item = result.getItem();
+        if (item != null && isProjected(req.getProjectionExpression(), req.getAttributesToGet())) {
+            item = currentItem(accessKey, region, req.getTableName(), req.getKey());
+        }
+        TableSchema schema = schemaOf(accessKey, region, req.getTableName());
+        recordRead(accessKey, region, req.getTableName(), null, GET_ITEM, partitionKeyOf(schema, req.getKey()), CapacityUnits.sizeOf(item), req.getConsistentRead());
+        return result;
     }
 
     @Override
     public GetRecordsResult getRecords(String accessKey, String region, GetRecordsRequest req) {
-        injectFailureFor(req);
+        injectFailureFor(accessKey, req);
         return super.getRecords(accessKey, region, req);
     }
 
     @Override
     public GetShardIteratorResult getShardIterator(String accessKey, String region, GetShardIteratorRequest req) {
-        injectFailureFor(req);
+        injectFailureFor(accessKey, req);
         return super.getShardIterator(accessKey, region, req);
     }
 
     @Override
     public ListStreamsResult listStreams(String accessKey, String region, ListStreamsRequest req) {
-        injectFailureFor(req);
+        injectFailureFor(accessKey, req);
         return super.listStreams(accessKey, region, req);
     }
 
     @Override
     public ListTablesResult listTables(String accessKey, String region, ListTablesRequest req) {
-        injectFailureFor(req);
+        injectFailureFor(accessKey, req);
         return super.listTables(accessKey, region, req);
     }
 
+    /**
+     * With capacity accounting the old item is requested with the put
+     * and removed from the result if the client did not ask for it.
+     */
     @Override
     public PutItemResult putItem(String accessKey, String region, PutItemRequest req) {
-        injectFailureFor(req);
-        return super.putItem(accessKey, region, req);
+        injectFailureFor(accessKey, req);
+        if (!capacityAccounting) {
+            PutItemResult result = super.putItem(accessKey, region, req);
+            track(accessKey, region, req.getTableName(), req.getItem(), req.getItem());
+            return result;
+        }
+        String returnValues = req.getReturnValues();
+        PutItemResult result;
+        try {
+            req.setReturnValues(ReturnValue.ALL_OLD);
+            result = super.putItem(accessKey, region, req);
+        } catch (AmazonServiceException e) {
+            if (isConditionalCheckFailed(e)) recordFailedWrite(accessKey, region, req.getTableName(), PUT_ITEM, req.getItem(), req.getItem());
+            throw e;
+        } finally {
+            req.setReturnValues(returnValues);
+        }
+        Map<String, AttributeValue> oldItem = result.getAttributes();
+        if (!ReturnValue.ALL_OLD.toString().equals(returnValues)) result.setAttributes(null);
+        track(accessKey, region, req.getTableName(), req.getItem(), req.getItem());
+        recordWrite(accessKey, region, req.getTableName(), PUT_ITEM, req.getItem(), oldItem, req.getItem());
+        return result;
     }
 
     @Override
     public QueryResult query(String accessKey, String region, QueryRequest req) {
-        injectFailureFor(req);
-        return super.query(accessKey, region, req);
+        injectFailureFor(accessKey, req);
+        QueryResult result = super.query(accessKey, region, req);
+        if (!capacityAccounting) return result;
+        List<Map<String, AttributeValue>> items = result.getItems();
+        if (isNarrowed(req.getFilterExpression(), req.getQueryFilter(), req.getProjectionExpression(), req.getAttributesToGet(), req.getSelect())) {
+            items = evaluatedItems(accessKey, region, req, result.getScannedCount());
+        }
+        String partitionKey = null;
+        if (req.getIndexName() == null && items != null && !items.isEmpty()) {
+            partitionKey = partitionKeyOf(schemaOf(accessKey, region, req.getTableName()), items.get(0));
+        }
+        recordRead(accessKey, region, req.getTableName(), req.getIndexName(), QUERY, partitionKey, CapacityUnits.sizeOf(items), req.getConsistentRead());
+        return result;
     }
 
     @Override
     public ScanResult scan(String accessKey, String region, ScanRequest req) {
-        injectFailureFor(req);
-        return super.scan(accessKey, region, req);
+        injectFailureFor(accessKey, req);
+        ScanResult result = super.scan(accessKey, region, req);
+        if (!capacityAccounting) return result;
+        List<Map<String, AttributeValue>> items = result.getItems();
+        if (isNarrowed(req.getFilterExpression(), req.getScanFilter(), req.getProjectionExpression(), req.getAttributesToGet(), req.getSelect())) {
+            items = evaluatedItems(accessKey, region, req, result.getScannedCount());
+        }
+        recordRead(accessKey, region, req.getTableName(), req.getIndexName(), SCAN, null, CapacityUnits.sizeOf(items), req.getConsistentRead());
+        return result;
     }
 
+    /**
+     * The old and the new item are needed for the capacity and the new item
+     * for the time to live. At most one read is added to the update: what is
+     * missing is taken from the update result, asking all the new attributes
+     * when the client asked none. With the updated attributes only, the other
+     * item is rebuilt from them, ignoring the removed or added attributes,
+     * unless the time to live is enabled: then the new item is read back,
+     * a removed time to live attribute must not be kept.
+     */
     @Override
     public UpdateItemResult updateItem(String accessKey, String region, UpdateItemRequest req) {
-        injectFailureFor(req);
-        return super.updateItem(accessKey, region, req);
+        injectFailureFor(accessKey, req);
+        boolean accounting = capacityAccounting;
+        if (!accounting && timeToLive.attributeOf(accessKey, region, req.getTableName()) == null) {
+            return super.updateItem(accessKey, region, req);
+        }
+        String returnValues = req.getReturnValues();
+        Map<String, AttributeValue> oldItem = null;
+        Map<String, AttributeValue> newItem;
+        UpdateItemResult result;
+        try {
+            if (returnValues == null || ReturnValue.NONE.toString().equals(returnValues) || ReturnValue.ALL_NEW.toString().equals(returnValues)) {
+                if (accounting) oldItem = previousItem(accessKey, region, req.getTableName(), req.getKey());
+                req.setReturnValues(ReturnValue.ALL_NEW);
+                result = super.updateItem(accessKey, region, req);
+                newItem = result.getAttributes();
+                if (!ReturnValue.ALL_NEW.toString().equals(returnValues)) result.setAttributes(null);
+            } else if (ReturnValue.ALL_OLD.toString().equals(returnValues)) {
+                result = super.updateItem(accessKey, region, req);
+                oldItem = result.getAttributes();
+                newItem = currentItem(accessKey, region, req.getTableName(), req.getKey());
+            } else if (ReturnValue.UPDATED_OLD.toString().equals(returnValues)) {
+                result = super.updateItem(accessKey, region, req);
+                newItem = currentItem(accessKey, region, req.getTableName(), req.getKey());
+                oldItem = overlay(newItem, result.getAttributes());
+            } else {
+                if (accounting) oldItem = previousItem(accessKey, region, req.getTableName(), req.getKey());
+                result = super.updateItem(accessKey, region, req);
+                if (timeToLive.attributeOf(accessKey, region, req.getTableName()) != null) {
+                    newItem = currentItem(accessKey, region, req.getTableName(), req.getKey());
+                } else {
+                    // A new item has only the key and the updated attributes
+                    newItem = overlay(oldItem == null ? req.getKey() : oldItem, result.getAttributes());
+                }
+            }
+        } catch (AmazonServiceException e) {
+            if (accounting && isConditionalCheckFailed(e)) recordFailedWrite(accessKey, region, req.getTableName(), UPDATE_ITEM, req.getKey(), null);
+            throw e;
+        } finally {
+            req.setReturnValues(returnValues);
+        }
+        if (newItem == null) untrack(accessKey, region, req.getTableName(), req.getKey());
+        else track(accessKey, region, req.getTableName(), req.getKey(), newItem);
+        if (accounting) recordWrite(accessKey, region, req.getTableName(), UPDATE_ITEM, req.getKey(), oldItem, newItem);
+        return result;
     }
 
     @Override
     public UpdateTableResult updateTable(String accessKey, String region, UpdateTableRequest req) {
-        injectFailureFor(req);
-        return super.updateTable(accessKey, region, req);
+        injectFailureFor(accessKey, req);
+        UpdateTableResult result = super.updateTable(accessKey, region, req);
+        schemas.remove(accessKey, region, req.getTableName());
+        return result;
     }
 
 }
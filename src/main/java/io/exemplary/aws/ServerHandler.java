@@ -0,0 +1,71 @@
+/**
+ * Copyright 2017 Alessandro Simi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.exemplary.aws;
+
+import com.amazonaws.services.dynamodbv2.local.server.LocalDynamoDBRequestHandler;
+import com.amazonaws.services.dynamodbv2.local.server.LocalDynamoDBServerHandler;
+import org.eclipse.jetty.server.Request;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Http handler that compresses the responses with gzip when the
+ * client accepts it.
+ */
+class ServerHandler extends LocalDynamoDBServerHandler {
+
+    private final static String ACCEPT_ENCODING = "Accept-Encoding";
+    private final static String GZIP = "gzip";
+
+    ServerHandler(LocalDynamoDBRequestHandler requestHandler, String corsParams) {
+        super(requestHandler, corsParams);
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+        if (acceptsGzip(request.getHeader(ACCEPT_ENCODING))) {
+            GzipResponse gzipResponse = new GzipResponse(response);
+            try {
+                super.handle(target, baseRequest, request, gzipResponse);
+            } finally {
+                gzipResponse.finish();
+            }
+        } else {
+            super.handle(target, baseRequest, request, response);
+        }
+    }
+
+    /**
+     * @return {@code true} if gzip is one of the encodings, unless it has zero quality.
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) return false;
+        for (String encoding : acceptEncoding.split(",")) {
+            String[] parameters = encoding.split(";");
+            if (parameters[0].trim().equalsIgnoreCase(GZIP)) {
+                for (int i = 1; i < parameters.length; i++) {
+                    if (parameters[i].replace(" ", "").matches("q=0(\\.0*)?")) return false;
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2017 Alessandro Simi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.exemplary.aws;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Values by table. DynamoDBLocal keeps a separate database for each
+ * access key and region, so the table name alone does not identify
+ * a table. The lookup does not allocate.
+ * @param <V> the value type.
+ */
+class TableMap<V> {
+
+    private final ConcurrentMap<String, ConcurrentMap<String, ConcurrentMap<String, V>>> values =
+            new ConcurrentHashMap<String, ConcurrentMap<String, ConcurrentMap<String, V>>>();
+
+    V get(String accessKey, String region, String tableName) {
+        ConcurrentMap<String, ConcurrentMap<String, V>> regions = values.get(accessKey);
+        if (regions == null) return null;
+        ConcurrentMap<String, V> tables = regions.get(region);
+        if (tables == null) return null;
+        return tables.get(tableName);
+    }
+
+    void put(String accessKey, String region, String tableName, V value) {
+        ConcurrentMap<String, ConcurrentMap<String, V>> regions = values.get(accessKey);
+        if (regions == null) {
+            values.putIfAbsent(accessKey, new ConcurrentHashMap<String, ConcurrentMap<String, V>>());
+            regions = values.get(accessKey);
+        }
+        ConcurrentMap<String, V> tables = regions.get(region);
+        if (tables == null) {
+            regions.putIfAbsent(region, new ConcurrentHashMap<String, V>());
+            tables = regions.get(region);
+        }
+        tables.put(tableName, value);
+    }
+
+    V remove(String accessKey, String region, String tableName) {
+        ConcurrentMap<String, ConcurrentMap<String, V>> regions = values.get(accessKey);
+        if (regions == null) return null;
+        ConcurrentMap<String, V> tables = regions.get(region);
+        if (tables == null) return null;
+        return tables.remove(tableName);
+    }
+
+    void clear() {
+        values.clear();
+    }
+
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright 2017 Alessandro Simi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.exemplary.aws;
+
+import com.amazonaws.services.dynamodbv2.model.*;
+import com.amazonaws.util.BinaryUtils;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Key attributes and secondary indexes of a table.
+ */
+class TableSchema {
+
+    final String hashKey;
+    final List<String> keyNames;
+    final List<Index> indexes;
+
+    TableSchema(TableDescription table) {
+        hashKey = hashKeyOf(table.getKeySchema());
+        keyNames = namesOf(table.getKeySchema());
+        indexes = new ArrayList<Index>();
+        if (table.getLocalSecondaryIndexes() != null) {
+            for (LocalSecondaryIndexDescription index : table.getLocalSecondaryIndexes()) {
+                indexes.add(new Index(index.getIndexName(), index.getKeySchema(), index.getProjection()));
+            }
+        }
+        if (table.getGlobalSecondaryIndexes() != null) {
+            for (GlobalSecondaryIndexDescription index : table.getGlobalSecondaryIndexes()) {
+                indexes.add(new Index(index.getIndexName(), index.getKeySchema(), index.getProjection()));
+            }
+        }
+    }
+
+    /**
+     * @return the primary key of the item.
+     */
+    Map<String, AttributeValue> keyOf(Map<String, AttributeValue> item) {
+        Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+        for (String name : keyNames) {
+            key.put(name, item.get(name));
+        }
+        return key;
+    }
+
+    class Index {
+
+        final String name;
+        final List<String> keyNames;
+        private final String projectionType;
+        private final List<String> nonKeyAttributes;
+
+        private Index(String name, List<KeySchemaElement> keySchema, Projection projection) {
+            this.name = name;
+            this.keyNames = namesOf(keySchema);
+            this.projectionType = projection.getProjectionType();
+            this.nonKeyAttributes = projection.getNonKeyAttributes() == null ?
+                    Collections.<String>emptyList() : projection.getNonKeyAttributes();
+        }
+
+        /**
+         * @return {@code true} if the item has all the index key attributes.
+         */
+        boolean contains(Map<String, AttributeValue> item) {
+            if (item == null) return false;
+            for (String name : keyNames) {
+                if (!item.containsKey(name)) return false;
+            }
+            return true;
+        }
+
+        /**
+         * @return the attributes of the item copied into the index.
+         */
+        Map<String, AttributeValue> projectionOf(Map<String, AttributeValue> item) {
+            if (ProjectionType.ALL.toString().equals(projectionType)) return item;
+            Map<String, AttributeValue> projection = new HashMap<String, AttributeValue>();
+            copy(item, TableSchema.this.keyNames, projection);
+            copy(item, keyNames, projection);
+            if (ProjectionType.INCLUDE.toString().equals(projectionType)) copy(item, nonKeyAttributes, projection);
+            return projection;
+        }
+
+    }
+
+    /**
+     * @return the key attribute value as string: the string, the number or the base64 of the binary.
+     */
+    static String stringOf(AttributeValue value) {
+        if (value.getS() != null) return value.getS();
+        if (value.getN() != null) return value.getN();
+        if (value.getB() != null) {
+            ByteBuffer binary = value.getB().duplicate();
+            byte[] bytes = new byte[binary.remaining()];
+            binary.get(bytes);
+            return BinaryUtils.toBase64(bytes);
+        }
+        throw new IllegalArgumentException("The key attribute should be a string, a number or a binary");
+    }
+
+    /**
+     * @return the key attribute value as string prefixed by its type.
+     */
+    static String encode(AttributeValue value) {
+        if (value.getS() != null) return "S:" + value.getS();
+        if (value.getN() != null) return "N:" + value.getN();
+        return "B:" + stringOf(value);
+    }
+
+    private static void copy(Map<String, AttributeValue> item, List<String> names, Map<String, AttributeValue> projection) {
+        for (String name : names) {
+            AttributeValue value = item.get(name);
+            if (value != null) projection.put(name, value);
+        }
+    }
+
+    private static String hashKeyOf(List<KeySchemaElement> keySchema) {
+        for (KeySchemaElement element : keySchema) {
+            if (KeyType.HASH.toString().equals(element.getKeyType())) return element.getAttributeName();
+        }
+        throw new IllegalStateException("The table has no hash key");
+    }
+
+    private static List<String> namesOf(List<KeySchemaElement> keySchema) {
+        List<String> names = new ArrayList<String>();
+        for (KeySchemaElement element : keySchema) {
+            names.add(element.getAttributeName());
+        }
+        return names;
+    }
+
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright 2017 Alessandro Simi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.exemplary.aws;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to live configuration of the tables and index of the items
+ * ordered by expiry time, so the expired ones can be found without
+ * scanning the tables.
+ */
+class TimeToLive {
+
+    private final TableMap<String> attributes = new TableMap<String>();
+    private final Map<String, ExpiringItem> itemsById = new HashMap<String, ExpiringItem>();
+    private final TreeSet<ExpiringItem> itemsByExpiry = new TreeSet<ExpiringItem>();
+    private volatile long clockOffset = 0;
+    private volatile boolean enabled = false;
+
+    void enable(String accessKey, String region, String tableName, String attributeName) {
+        attributes.put(accessKey, region, tableName, attributeName);
+        enabled = true;
+    }
+
+    /**
+     * @return {@code true} if the time to live has been enabled on any table
+     * since the last reset, otherwise the writes can skip the tracking.
+     */
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Disable the time to live of the table and forget its items.
+     */
+    synchronized void disable(String accessKey, String region, String tableName) {
+        attributes.remove(accessKey, region, tableName);
+        String prefix = accessKey + "/" + region + "/" + tableName + "/";
+        Iterator<ExpiringItem> iterator = itemsByExpiry.iterator();
+        while (iterator.hasNext()) {
+            ExpiringItem item = iterator.next();
+            if (item.id.startsWith(prefix)) {
+                iterator.remove();
+                itemsById.remove(item.id);
+            }
+        }
+    }
+
+    /**
+     * @return the time to live attribute of the table or {@code null} if not enabled.
+     */
+    String attributeOf(String accessKey, String region, String tableName) {
+        return attributes.get(accessKey, region, tableName);
+    }
+
+    /**
+     * @return the current time in epoch seconds, including the advanced clock.
+     */
+    long now() {
+        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() + clockOffset);
+    }
+
+    synchronized void advanceClock(long amount, TimeUnit unit) {
+        clockOffset += unit.toMillis(amount);
+    }
+
+    /**
+     * Index the item by the value of the time to live attribute. If the attribute
+     * is missing or it is not a number the item never expires.
+     */
+    synchronized void track(String accessKey, String region, String tableName, Map<String, AttributeValue> key, Map<String, AttributeValue> item) {
+        String id = idOf(accessKey, region, tableName, key);
+        untrack(id);
+        String attributeName = attributes.get(accessKey, region, tableName);
+        Long expiry = attributeName == null ? null : expiryOf(item.get(attributeName));
+        if (expiry != null) {
+            ExpiringItem expiringItem = new ExpiringItem(id, accessKey, region, tableName, key, expiry);
+            itemsById.put(id, expiringItem);
+            itemsByExpiry.add(expiringItem);
+        }
+    }
+
+    synchronized void untrack(String accessKey, String region, String tableName, Map<String, AttributeValue> key) {
+        untrack(idOf(accessKey, region, tableName, key));
+    }
+
+    private void untrack(String id) {
+        ExpiringItem previous = itemsById.remove(id);
+        if (previous != null) itemsByExpiry.remove(previous);
+    }
+
+    /**
+     * Remove from the index the items already expired.
+     * @param limit the maximum number of items returned.
+     * @return the expired items, the oldest first.
+     */
+    synchronized List<ExpiringItem> pollExpired(int limit) {
+        long now = now();
+        List<ExpiringItem> expired = new ArrayList<ExpiringItem>();
+        while (expired.size() < limit && !itemsByExpiry.isEmpty() && itemsByExpiry.first().expiry <= now) {
+            ExpiringItem item = itemsByExpiry.pollFirst();
+            itemsById.remove(item.id);
+            expired.add(item);
+        }
+        return expired;
+    }
+
+    synchronized void reset() {
+        enabled = false;
+        attributes.clear();
+        itemsById.clear();
+        itemsByExpiry.clear();
+        clockOffset = 0;
+    }
+
+    /**
+     * The key attributes are sorted by name and encoded with their type,
+     * so two different keys never share the same id.
+     */
+    private static String idOf(String accessKey, String region, String tableName, Map<String, AttributeValue> key) {
+        StringBuilder id = new StringBuilder().append(accessKey).append('/').append(region).append('/').append(tableName).append('/');
+        for (Map.Entry<String, AttributeValue> attribute : new TreeMap<String, AttributeValue>(key).entrySet()) {
+            id.append(attribute.getKey()).append('=').append(TableSchema.encode(attribute.getValue())).append(';');
+        }
+        return id.toString();
+    }
+
+    private static Long expiryOf(AttributeValue value) {
+        if (value == null || value.getN() == null) return null;
+        try {
+            return new BigDecimal(value.getN()).longValue();
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    static class ExpiringItem implements Comparable<ExpiringItem> {
+
+        final String id;
+        final String accessKey;
+        final String region;
+        final String tableName;
+        final Map<String, AttributeValue> key;
+        final long expiry;
+
+        private ExpiringItem(String id, String accessKey, String region, String tableName, Map<String, AttributeValue> key, long expiry) {
+            this.id = id;
+            this.accessKey = accessKey;
+            this.region = region;
+            this.tableName = tableName;
+            this.key = key;
+            this.expiry = expiry;
+        }
+
+        @Override
+        public int compareTo(ExpiringItem other) {
+            if (expiry != other.expiry) return expiry < other.expiry ? -1 : 1;
+            return id.compareTo(other.id);
+        }
+
+    }
+
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright 2017 Alessandro Simi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.exemplary.aws;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
+import com.amazonaws.services.dynamodbv2.model.*;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Runs a mix of requests against a scratch table until the latency
+ * settles, so the server code is compiled before the first real request.
+ * The scratch table lives under its own access key, not affected by the
+ * injected failures, and it is deleted at the end.
+ * The result is the warm up time in milliseconds.
+ */
+class WarmUp implements Callable<Long> {
+
+    private static final Logger logger = Logger.getLogger(WarmUp.class.getName());
+
+    final static String TABLE_NAME = "dynamo-db-server-warm-up";
+    final static String ACCESS_KEY = "warmUpAccessKey";
+    final static long MAX_DURATION_IN_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private final static String KEY = "key";
+    private final static String FIELD = "field";
+    private final static int ITEMS_PER_ROUND = 25;
+    private final static int MIN_ROUNDS = 10;
+    private final static int SETTLED_ROUNDS = 5;
+    private final static double SETTLED_VARIATION = 0.1;
+
+    private final String endpoint;
+    private final RequestHandler requestHandler;
+    private final long maxDurationInMillis;
+
+    /**
+     * @param maxDurationInMillis the warm up stops after this time even if the latency is not settled.
+     */
+    WarmUp(String endpoint, RequestHandler requestHandler, long maxDurationInMillis) {
+        this.endpoint = endpoint;
+        this.requestHandler = requestHandler;
+        this.maxDurationInMillis = maxDurationInMillis;
+    }
+
+    @Override
+    public Long call() {
+        long start = System.nanoTime();
+        AmazonDynamoDBClient client = new AmazonDynamoDBClient(new BasicAWSCredentials(ACCESS_KEY, "secretKey"));
+        client.setEndpoint(endpoint);
+        try {
+            client.createTable(createTableRequest());
+            LinkedList<Long> rounds = new LinkedList<Long>();
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxDurationInMillis);
+            int count = 0;
+            do {
+                long roundStart = System.nanoTime();
+                round(client);
+                rounds.addLast(System.nanoTime() - roundStart);
+                if (rounds.size() > SETTLED_ROUNDS) rounds.removeFirst();
+                count++;
+            } while (System.nanoTime() < deadline && (count < MIN_ROUNDS || !settled(rounds)));
+        } finally {
+            try {
+                client.deleteTable(new DeleteTableRequest(TABLE_NAME));
+            } catch (RuntimeException e) {
+                // The table has not been created
+            }
+            client.shutdown();
+            requestHandler.resetCapacity(ACCESS_KEY, TABLE_NAME);
+        }
+        long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        logger.info("Dynamo db server warmed up in " + duration + " ms");
+        return duration;
+    }
+
+    /**
+     * The latency is settled when the last rounds took about the same time.
+     */
+    private static boolean settled(List<Long> rounds) {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        long sum = 0;
+        for (long time : rounds) {
+            min = Math.min(min, time);
+            max = Math.max(max, time);
+            sum += time;
+        }
+        return max - min <= SETTLED_VARIATION * sum / rounds.size();
+    }
+
+    private void round(AmazonDynamoDBClient client) {
+        List<WriteRequest> writes = new ArrayList<WriteRequest>();
+        List<Map<String, AttributeValue>> keys = new ArrayList<Map<String, AttributeValue>>();
+        for (int i = 0; i < ITEMS_PER_ROUND; i++) {
+            writes.add(new WriteRequest(new PutRequest(item("batch" + i))));
+            keys.add(key("batch" + i));
+        }
+        client.batchWriteItem(new BatchWriteItemRequest(Collections.singletonMap(TABLE_NAME, writes)));
+        client.batchGetItem(new BatchGetItemRequest(Collections.singletonMap(TABLE_NAME, new KeysAndAttributes().withKeys(keys))));
+        for (int i = 0; i < ITEMS_PER_ROUND; i++) {
+            String key = "item" + i;
+            client.putItem(new PutItemRequest(TABLE_NAME, item(key)));
+            client.getItem(new GetItemRequest(TABLE_NAME, key(key), i % 2 == 0));
+            Map<String, AttributeValueUpdate> update = new HashMap<String, AttributeValueUpdate>();
+            update.put(FIELD, new AttributeValueUpdate(new AttributeValue(key + "updated"), AttributeAction.PUT));
+            client.updateItem(new UpdateItemRequest(TABLE_NAME, key(key), update));
+            Map<String, Condition> condition = new HashMap<String, Condition>();
+            condition.put(KEY, new Condition().withComparisonOperator(ComparisonOperator.EQ).withAttributeValueList(new AttributeValue(key)));
+            client.query(new QueryRequest(TABLE_NAME).withKeyConditions(condition));
+        }
+        client.scan(new ScanRequest(TABLE_NAME));
+        for (int i = 0; i < ITEMS_PER_ROUND; i++) {
+            client.deleteItem(new DeleteItemRequest(TABLE_NAME, key("item" + i)));
+        }
+    }
+
+    private static CreateTableRequest createTableRequest() {
+        return new CreateTableRequest()
+                .withTableName(TABLE_NAME)
+                .withAttributeDefinitions(new AttributeDefinition(KEY, ScalarAttributeType.S))
+                .withKeySchema(new KeySchemaElement(KEY, KeyType.HASH))
+                .withProvisionedThroughput(new ProvisionedThroughput(10L, 10L));
+    }
+
+    private static Map<String, AttributeValue> item(String key) {
+        Map<String, AttributeValue> item = key(key);
+        item.put(FIELD, new AttributeValue(key));
+        return item;
+    }
+
+    private static Map<String, AttributeValue> key(String key) {
+        Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+        item.put(KEY, new AttributeValue(key));
+        return item;
+    }
+
+}
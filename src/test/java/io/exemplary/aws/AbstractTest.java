@@ -20,6 +20,9 @@ import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
 import com.amazonaws.services.dynamodbv2.model.*;
 import org.junit.Before;
 
+import java.util.HashMap;
+import java.util.Map;
+
 abstract class AbstractTest {
 
     final DynamoDBServer server;
@@ -28,10 +31,14 @@ abstract class AbstractTest {
     AbstractTest() {
         server = new DynamoDBServer();
         server.start();
-        client = new AmazonDynamoDBClient(new BasicAWSCredentials("accessKey", "secretKey"));
+        client = new AmazonDynamoDBClient(credentials());
         client.setEndpoint(server.getEndpoint());
     }
 
+    BasicAWSCredentials credentials() {
+        return new BasicAWSCredentials("accessKey", "secretKey");
+    }
+
     @Before
     public void cleanBeforeTest() {
         server.reset();
@@ -61,4 +68,10 @@ abstract class AbstractTest {
                 .withTableName(tableName);
     }
 
+    Map<String, AttributeValue> key(String key) {
+        Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+        item.put("key", new AttributeValue(key));
+        return item;
+    }
+
 }
@@ -0,0 +1,49 @@
+/**
+ * Copyright 2017 Alessandro Simi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.exemplary.aws;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures the memory allocated by the current thread, the test is
+ * skipped when the JVM does not support the measure.
+ */
+class Allocations {
+
+    private static final int REQUESTS = 100000;
+    // Tolerance for the allocations of the measurement itself
+    private static final long MAX_ALLOCATED_BYTES = 1024;
+
+    private Allocations() {}
+
+    static void assertNoAllocation(Runnable dispatch) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        long threadId = Thread.currentThread().getId();
+        // Warm up, so the measure does not include the class loading
+        for (int i = 0; i < REQUESTS; i++) dispatch.run();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < REQUESTS; i++) dispatch.run();
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        assertTrue("Allocated bytes " + allocated, allocated < MAX_ALLOCATED_BYTES);
+    }
+
+}
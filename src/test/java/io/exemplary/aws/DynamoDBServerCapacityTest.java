@@ -0,0 +1,235 @@
+/**
+ * Copyright 2017 Alessandro Simi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.exemplary.aws;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
+import com.amazonaws.services.dynamodbv2.model.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class DynamoDBServerCapacityTest extends AbstractTest {
+
+    private static final double DELTA = 0.001;
+
+    @Before
+    public void enableCapacityAccounting() {
+        server.setCapacityAccounting(true);
+    }
+
+    @Test
+    public void theServerShouldReportTheConsumedCapacity() {
+        client.createTable(createTableRequest("tableName", "key"));
+        // Small item costs one write unit, a 2 KB item costs two write units
+        client.putItem("tableName", item("key1", 10));
+        client.putItem("tableName", item("key2", 2000));
+        // Eventually consistent read costs half unit, strongly consistent one unit
+        client.getItem(new GetItemRequest("tableName", key("key1")));
+        client.getItem(new GetItemRequest("tableName", key("key1"), true));
+        CapacityReport.TableCapacity table = server.capacityReport().getTable("tableName");
+        assertEquals(1.5, table.getTotal().getReadCapacityUnits(), DELTA);
+        assertEquals(3, table.getTotal().getWriteCapacityUnits(), DELTA);
+        assertEquals(3, table.getOperations().get("PutItem").getWriteCapacityUnits(), DELTA);
+        assertEquals(1.5, table.getOperations().get("GetItem").getReadCapacityUnits(), DELTA);
+        assertEquals(Arrays.asList("key2", "key1"), Arrays.asList(table.getHotPartitionKeys().keySet().toArray()));
+    }
+
+    @Test
+    public void theServerShouldResetTheConsumedCapacity() {
+        client.createTable(createTableRequest("tableName", "key"));
+        client.putItem("tableName", item("key1", 10));
+        server.reset();
+        assertNull(server.capacityReport().getTable("tableName"));
+    }
+
+    @Test
+    public void theServerShouldAddUpTheTablesWithTheSameNameUnderDifferentAccessKeys() {
+        AmazonDynamoDBClient otherClient = new AmazonDynamoDBClient(new BasicAWSCredentials("otherAccessKey", "secretKey"));
+        otherClient.setEndpoint(server.getEndpoint());
+        client.createTable(createTableRequest("tableName", "key"));
+        otherClient.createTable(createTableRequest("tableName", "key"));
+        client.putItem("tableName", item("key1", 10));
+        otherClient.putItem("tableName", item("key1", 2000));
+        otherClient.deleteTable(deleteTableRequest("tableName"));
+        otherClient.shutdown();
+        CapacityReport.TableCapacity table = server.capacityReport().getTable("tableName");
+        assertEquals(3, table.getTotal().getWriteCapacityUnits(), DELTA);
+    }
+
+    @Test
+    public void theServerShouldNotReportTheConsumedCapacityByDefault() {
+        server.setCapacityAccounting(false);
+        client.createTable(createTableRequest("tableName", "key"));
+        client.putItem("tableName", item("key1", 10));
+        assertNull(server.capacityReport().getTable("tableName"));
+    }
+
+    @Test
+    public void theServerShouldReportTheSecondaryIndexesWrites() {
+        client.createTable(createTableWithIndexesRequest("tableName"));
+        // The item is added to the table and to both indexes
+        client.putItem("tableName", item("key1", "range1", "field1"));
+        // The global index projects all the attributes, the local index only the keys
+        client.updateItem(new UpdateItemRequest()
+                .withTableName("tableName")
+                .withKey(key("key1", "range1"))
+                .withUpdateExpression("SET other = :other")
+                .withExpressionAttributeValues(values(":other", "other1")));
+        // The global index key changes, the old entry is deleted and the new one put
+        client.updateItem(new UpdateItemRequest()
+                .withTableName("tableName")
+                .withKey(key("key1", "range1"))
+                .withUpdateExpression("SET field = :field")
+                .withExpressionAttributeValues(values(":field", "field2")));
+        CapacityReport.TableCapacity table = server.capacityReport().getTable("tableName");
+        assertEquals(3, table.getTotal().getWriteCapacityUnits(), DELTA);
+        assertEquals(4, table.getIndexes().get("byField").getWriteCapacityUnits(), DELTA);
+        assertEquals(1, table.getIndexes().get("byLocal").getWriteCapacityUnits(), DELTA);
+        assertEquals(3, table.getOperations().get("PutItem").getWriteCapacityUnits(), DELTA);
+        assertEquals(5, table.getOperations().get("UpdateItem").getWriteCapacityUnits(), DELTA);
+    }
+
+    @Test
+    public void theServerShouldReportTheFailedConditionalWrites() {
+        client.createTable(createTableRequest("tableName", "key"));
+        client.putItem("tableName", item("key1", 10));
+        try {
+            client.putItem(new PutItemRequest("tableName", item("key1", 10))
+                    .withConditionExpression("attribute_not_exists(#key)")
+                    .withExpressionAttributeNames(names("#key", "key")));
+            fail("The conditional put should fail");
+        } catch (ConditionalCheckFailedException e) {
+            // expected
+        }
+        CapacityReport.TableCapacity table = server.capacityReport().getTable("tableName");
+        assertEquals(2, table.getOperations().get("PutItem").getWriteCapacityUnits(), DELTA);
+    }
+
+    @Test
+    public void theServerShouldRoundTheQueryAndScanOnTheEvaluatedItems() {
+        client.createTable(createTableWithIndexesRequest("tableName"));
+        // Three items of about 2 KB, 6 KB all together
+        for (String range : Arrays.asList("range1", "range2", "range3")) {
+            client.putItem("tableName", item("key1", range, largeValue(2000)));
+        }
+        // Strongly consistent query costs two units, eventually consistent one unit
+        client.query(queryRequest("tableName").withConsistentRead(true));
+        client.query(queryRequest("tableName").withConsistentRead(false));
+        // The filtered and the counted items are charged as well
+        client.query(queryRequest("tableName").withConsistentRead(true)
+                .withFilterExpression("other = :none")
+                .withExpressionAttributeValues(values(":key", "key1", ":none", "none")));
+        client.query(queryRequest("tableName").withConsistentRead(true).withSelect(Select.COUNT));
+        client.scan(new ScanRequest("tableName")
+                .withFilterExpression("other = :none")
+                .withExpressionAttributeValues(values(":none", "none")));
+        CapacityReport.TableCapacity table = server.capacityReport().getTable("tableName");
+        assertEquals(7, table.getOperations().get("Query").getReadCapacityUnits(), DELTA);
+        assertEquals(1, table.getOperations().get("Scan").getReadCapacityUnits(), DELTA);
+    }
+
+    @Test
+    public void theServerShouldReportThePeakAndTheAveragePerSecond() throws InterruptedException {
+        client.createTable(createTableRequest("tableName", "key"));
+        client.putItem("tableName", item("key1", 10));
+        Thread.sleep(2000);
+        client.putItem("tableName", item("key2", 10));
+        CapacityReport.TableCapacity table = server.capacityReport().getTable("tableName");
+        assertEquals(1, table.getPeakPerSecond().getWriteCapacityUnits(), DELTA);
+        // Two writes over three or four seconds, depending on the clock
+        double average = table.getAveragePerSecond().getWriteCapacityUnits();
+        assertTrue(average >= 0.5 - DELTA && average <= 2.0 / 3 + DELTA);
+    }
+
+    private Map<String, AttributeValue> item(String key, int size) {
+        Map<String, AttributeValue> item = key(key);
+        item.put("field", new AttributeValue(largeValue(size)));
+        return item;
+    }
+
+    private CreateTableRequest createTableWithIndexesRequest(String tableName) {
+        ProvisionedThroughput throughput = new ProvisionedThroughput(10L, 10L);
+        return new CreateTableRequest()
+                .withTableName(tableName)
+                .withAttributeDefinitions(
+                        new AttributeDefinition("key", ScalarAttributeType.S),
+                        new AttributeDefinition("range", ScalarAttributeType.S),
+                        new AttributeDefinition("local", ScalarAttributeType.S),
+                        new AttributeDefinition("field", ScalarAttributeType.S))
+                .withKeySchema(
+                        new KeySchemaElement("key", KeyType.HASH),
+                        new KeySchemaElement("range", KeyType.RANGE))
+                .withLocalSecondaryIndexes(new LocalSecondaryIndex()
+                        .withIndexName("byLocal")
+                        .withKeySchema(
+                                new KeySchemaElement("key", KeyType.HASH),
+                                new KeySchemaElement("local", KeyType.RANGE))
+                        .withProjection(new Projection().withProjectionType(ProjectionType.KEYS_ONLY)))
+                .withGlobalSecondaryIndexes(new GlobalSecondaryIndex()
+                        .withIndexName("byField")
+                        .withKeySchema(new KeySchemaElement("field", KeyType.HASH))
+                        .withProjection(new Projection().withProjectionType(ProjectionType.ALL))
+                        .withProvisionedThroughput(throughput))
+                .withProvisionedThroughput(throughput);
+    }
+
+    private QueryRequest queryRequest(String tableName) {
+        return new QueryRequest(tableName)
+                .withKeyConditionExpression("#key = :key")
+                .withExpressionAttributeNames(names("#key", "key"))
+                .withExpressionAttributeValues(values(":key", "key1"));
+    }
+
+    private Map<String, AttributeValue> key(String key, String range) {
+        Map<String, AttributeValue> item = key(key);
+        item.put("range", new AttributeValue(range));
+        return item;
+    }
+
+    private Map<String, AttributeValue> item(String key, String range, String field) {
+        Map<String, AttributeValue> item = key(key, range);
+        item.put("local", new AttributeValue("local"));
+        item.put("field", new AttributeValue(field));
+        return item;
+    }
+
+    private static String largeValue(int size) {
+        char[] value = new char[size];
+        Arrays.fill(value, 'a');
+        return new String(value);
+    }
+
+    private static Map<String, String> names(String placeholder, String name) {
+        Map<String, String> names = new HashMap<String, String>();
+        names.put(placeholder, name);
+        return names;
+    }
+
+    private static Map<String, AttributeValue> values(String... placeholdersAndValues) {
+        Map<String, AttributeValue> values = new HashMap<String, AttributeValue>();
+        for (int i = 0; i < placeholdersAndValues.length; i += 2) {
+            values.put(placeholdersAndValues[i], new AttributeValue(placeholdersAndValues[i + 1]));
+        }
+        return values;
+    }
+
+}
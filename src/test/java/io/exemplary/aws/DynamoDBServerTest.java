@@ -15,14 +15,26 @@
  */
 package io.exemplary.aws;
 
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.ListTablesResult;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class DynamoDBServerTest extends AbstractTest {
 
@@ -46,4 +58,89 @@ public class DynamoDBServerTest extends AbstractTest {
         assertEquals("field1", items.get("field").getS());
     }
 
+    @Test
+    public void theServerShouldCompressTheLargeResponses() throws IOException {
+        // Create a table
+        client.createTable(createTableRequest("tableName", "key"));
+        // Put enough items to compress the response
+        for (int i = 0; i < 100; i++) {
+            Map<String, AttributeValue> items = new HashMap<String, AttributeValue>();
+            items.put("key", new AttributeValue("key" + i));
+            items.put("field", new AttributeValue("field" + i));
+            client.putItem("tableName", items);
+        }
+        // Scan all the items
+        HttpURLConnection connection = post("Scan", "{\"TableName\":\"tableName\"}", "gzip");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("gzip", connection.getHeaderField("Content-Encoding"));
+        // The checksum of the uncompressed body would not match
+        assertNull(connection.getHeaderField("x-amz-crc32"));
+        String body = read(new GZIPInputStream(connection.getInputStream()));
+        assertTrue(body.contains("\"Count\":100"));
+    }
+
+    @Test
+    public void theServerShouldNotCompressTheSmallResponses() throws IOException {
+        client.createTable(createTableRequest("tableName", "key"));
+        HttpURLConnection connection = post("ListTables", "{}", "gzip");
+        assertEquals(200, connection.getResponseCode());
+        assertNull(connection.getHeaderField("Content-Encoding"));
+        assertTrue(read(connection.getInputStream()).contains("tableName"));
+    }
+
+    @Test
+    public void theServerShouldWarmUpOnStart() throws Exception {
+        DynamoDBServer warmServer = new DynamoDBServer();
+        warmServer.setWarmUpOnStart(true);
+        warmServer.setWarmUpMaxDuration(2, TimeUnit.SECONDS);
+        // The injected failures do not affect the warm up
+        warmServer.failsWithResponseCode(501);
+        try {
+            warmServer.start();
+            long warmUpTime = warmServer.ready().get(1, TimeUnit.MINUTES);
+            assertTrue("The warm up time should be reported", warmUpTime > 0);
+            // The scratch table has been removed
+            warmServer.doesNotFail();
+            AmazonDynamoDBClient warmUpClient = new AmazonDynamoDBClient(new BasicAWSCredentials(WarmUp.ACCESS_KEY, "secretKey"));
+            warmUpClient.setEndpoint(warmServer.getEndpoint());
+            assertTrue(warmUpClient.listTables().getTableNames().isEmpty());
+            warmUpClient.shutdown();
+            assertNull(warmServer.capacityReport().getTable(WarmUp.TABLE_NAME));
+        } finally {
+            warmServer.stop();
+        }
+    }
+
+    /**
+     * Raw request, the client would hide the response encoding.
+     * The local server reads the access key and the region from
+     * the authorization header without checking the signature.
+     */
+    private HttpURLConnection post(String operation, String body, String acceptEncoding) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(server.getEndpoint()).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("X-Amz-Target", "DynamoDB_20120810." + operation);
+        connection.setRequestProperty("Content-Type", "application/x-amz-json-1.0");
+        connection.setRequestProperty("X-Amz-Date", "20170101T000000Z");
+        connection.setRequestProperty("Authorization", "AWS4-HMAC-SHA256 " +
+                "Credential=accessKey/20170101/us-east-1/dynamodb/aws4_request, " +
+                "SignedHeaders=host;x-amz-date;x-amz-target, Signature=0");
+        connection.setRequestProperty("Accept-Encoding", acceptEncoding);
+        OutputStream output = connection.getOutputStream();
+        output.write(body.getBytes("UTF-8"));
+        output.close();
+        return connection;
+    }
+
+    private static String read(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int read = input.read(buffer); read >= 0; read = input.read(buffer)) {
+            output.write(buffer, 0, read);
+        }
+        input.close();
+        return output.toString("UTF-8");
+    }
+
 }
@@ -0,0 +1,194 @@
+/**
+ * Copyright 2017 Alessandro Simi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.exemplary.aws;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBStreamsClient;
+import com.amazonaws.services.dynamodbv2.model.*;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class DynamoDBServerTimeToLiveTest extends AbstractTest {
+
+    @Test
+    public void theServerShouldDeleteTheExpiredItems() {
+        // Create a table with time to live
+        client.createTable(createTableRequest("tableName", "key"));
+        server.enableTimeToLive("tableName", "expiry");
+        assertEquals("expiry", server.describeTimeToLive("tableName"));
+        // Put an expiring item and one without expiry
+        client.putItem("tableName", item("key1", now() + 60));
+        client.putItem("tableName", key("key2"));
+        // Items are still there
+        assertNotNull(client.getItem("tableName", key("key1")).getItem());
+        // Move the clock after the expiry
+        server.advanceClock(2, TimeUnit.MINUTES);
+        assertNull(client.getItem("tableName", key("key1")).getItem());
+        assertNotNull(client.getItem("tableName", key("key2")).getItem());
+    }
+
+    @Test
+    public void theServerShouldNotDeleteTheItemsWhenTimeToLiveIsDisabled() {
+        // Create a table with time to live
+        client.createTable(createTableRequest("tableName", "key"));
+        server.enableTimeToLive("tableName", "expiry");
+        client.putItem("tableName", item("key1", now() + 60));
+        // Disable the time to live
+        server.disableTimeToLive("tableName");
+        assertNull(server.describeTimeToLive("tableName"));
+        server.advanceClock(2, TimeUnit.MINUTES);
+        assertNotNull(client.getItem("tableName", key("key1")).getItem());
+    }
+
+    @Test
+    public void theServerShouldDeleteTheItemsWrittenBeforeEnablingTimeToLive() {
+        client.createTable(createTableRequest("tableName", "key"));
+        client.putItem("tableName", item("key1", now() + 60));
+        // Enable the time to live after the write
+        server.enableTimeToLive("tableName", "expiry");
+        server.advanceClock(2, TimeUnit.MINUTES);
+        assertNull(client.getItem("tableName", key("key1")).getItem());
+    }
+
+    @Test
+    public void theServerShouldKeepTheItemsWhoseExpiryHasBeenExtended() {
+        client.createTable(createTableRequest("tableName", "key"));
+        server.enableTimeToLive("tableName", "expiry");
+        client.putItem("tableName", item("key1", now() + 60));
+        // Extend the expiry by one hour
+        Map<String, AttributeValueUpdate> update = new HashMap<String, AttributeValueUpdate>();
+        update.put("expiry", new AttributeValueUpdate(new AttributeValue().withN(Long.toString(now() + 3600)), AttributeAction.PUT));
+        client.updateItem("tableName", key("key1"), update);
+        server.advanceClock(2, TimeUnit.MINUTES);
+        assertNotNull(client.getItem("tableName", key("key1")).getItem());
+    }
+
+    @Test
+    public void theServerShouldDeleteTheExpiredItemsUpdatedWithTheUpdatedNewAttributes() {
+        theServerShouldDeleteTheExpiredItemsUpdatedWithTheUpdatedNewAttributes(false);
+    }
+
+    @Test
+    public void theServerShouldDeleteTheExpiredItemsUpdatedWithTheUpdatedNewAttributesAndCapacityAccounting() {
+        theServerShouldDeleteTheExpiredItemsUpdatedWithTheUpdatedNewAttributes(true);
+    }
+
+    private void theServerShouldDeleteTheExpiredItemsUpdatedWithTheUpdatedNewAttributes(boolean capacityAccounting) {
+        server.setCapacityAccounting(capacityAccounting);
+        client.createTable(createTableRequest("tableName", "key"));
+        server.enableTimeToLive("tableName", "expiry");
+        // The update does not touch the expiry of the existing item
+        client.putItem("tableName", item("key1", now() + 60));
+        Map<String, AttributeValueUpdate> field = new HashMap<String, AttributeValueUpdate>();
+        field.put("field", new AttributeValueUpdate(new AttributeValue("field1"), AttributeAction.PUT));
+        client.updateItem(new UpdateItemRequest("tableName", key("key1"), field, ReturnValue.UPDATED_NEW));
+        // The update creates a new expiring item
+        Map<String, AttributeValueUpdate> expiry = new HashMap<String, AttributeValueUpdate>();
+        expiry.put("expiry", new AttributeValueUpdate(new AttributeValue().withN(Long.toString(now() + 60)), AttributeAction.PUT));
+        client.updateItem(new UpdateItemRequest("tableName", key("key2"), expiry, ReturnValue.UPDATED_NEW));
+        server.advanceClock(2, TimeUnit.MINUTES);
+        assertNull(client.getItem("tableName", key("key1")).getItem());
+        assertNull(client.getItem("tableName", key("key2")).getItem());
+    }
+
+    @Test
+    public void theServerShouldDeleteTheExpiredItemsInBackground() throws InterruptedException {
+        server.setExpiryRate(1, 50, TimeUnit.MILLISECONDS);
+        client.createTable(createTableRequest("tableName", "key"));
+        server.enableTimeToLive("tableName", "expiry");
+        // Items already expired
+        for (int i = 0; i < 3; i++) client.putItem("tableName", item("key" + i, now() - 1));
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (client.scan(new ScanRequest("tableName")).getCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, client.scan(new ScanRequest("tableName")).getCount().intValue());
+    }
+
+    @Test
+    public void theServerShouldDeleteTheExpiredItemsWithBinaryKeys() {
+        client.createTable(new CreateTableRequest()
+                .withTableName("tableName")
+                .withAttributeDefinitions(new AttributeDefinition("key", ScalarAttributeType.B))
+                .withKeySchema(new KeySchemaElement("key", KeyType.HASH))
+                .withProvisionedThroughput(new ProvisionedThroughput(10L, 10L)));
+        server.enableTimeToLive("tableName", "expiry");
+        // Two binary keys of the same length
+        for (byte b = 0; b < 2; b++) {
+            Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+            item.put("key", new AttributeValue().withB(ByteBuffer.wrap(new byte[]{b, b})));
+            item.put("expiry", new AttributeValue().withN(Long.toString(now() + 60)));
+            client.putItem("tableName", item);
+        }
+        server.advanceClock(2, TimeUnit.MINUTES);
+        assertEquals(0, client.scan(new ScanRequest("tableName")).getCount().intValue());
+    }
+
+    @Test
+    public void theServerShouldWriteTheExpiryOnTheStream() {
+        client.createTable(createTableRequest("tableName", "key")
+                .withStreamSpecification(new StreamSpecification()
+                        .withStreamEnabled(true)
+                        .withStreamViewType(StreamViewType.NEW_AND_OLD_IMAGES)));
+        server.enableTimeToLive("tableName", "expiry");
+        client.putItem("tableName", item("key1", now() + 60));
+        server.advanceClock(2, TimeUnit.MINUTES);
+        // Read the stream
+        AmazonDynamoDBStreamsClient streams = new AmazonDynamoDBStreamsClient(credentials());
+        streams.setEndpoint(server.getEndpoint());
+        String streamArn = client.describeTable("tableName").getTable().getLatestStreamArn();
+        Shard shard = streams.describeStream(new DescribeStreamRequest().withStreamArn(streamArn))
+                .getStreamDescription().getShards().get(0);
+        String iterator = streams.getShardIterator(new GetShardIteratorRequest()
+                .withStreamArn(streamArn)
+                .withShardId(shard.getShardId())
+                .withShardIteratorType(ShardIteratorType.TRIM_HORIZON)).getShardIterator();
+        List<Record> records = streams.getRecords(new GetRecordsRequest().withShardIterator(iterator)).getRecords();
+        streams.shutdown();
+        assertEquals(2, records.size());
+        assertEquals("INSERT", records.get(0).getEventName());
+        assertEquals("REMOVE", records.get(1).getEventName());
+        assertEquals("key1", records.get(1).getDynamodb().getKeys().get("key").getS());
+    }
+
+    @Test
+    public void theServerShouldDisableTimeToLiveWhenTheTableIsDeleted() {
+        client.createTable(createTableRequest("tableName", "key"));
+        server.enableTimeToLive("tableName", "expiry");
+        client.deleteTable(deleteTableRequest("tableName"));
+        client.createTable(createTableRequest("tableName", "key"));
+        assertNull(server.describeTimeToLive("tableName"));
+    }
+
+    private long now() {
+        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    }
+
+    private Map<String, AttributeValue> item(String key, long expiry) {
+        Map<String, AttributeValue> item = key(key);
+        item.put("expiry", new AttributeValue().withN(Long.toString(expiry)));
+        return item;
+    }
+
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2017 Alessandro Simi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.exemplary.aws;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.ListTablesRequest;
+import org.junit.Test;
+
+import static io.exemplary.aws.Allocations.assertNoAllocation;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class FailureInjectorTest {
+
+    private final FailureInjector injector = new FailureInjector();
+    private final ListTablesRequest request = new ListTablesRequest();
+
+    @Test
+    public void theInjectorShouldNotAllocateWithoutFailure() {
+        assertNoAllocation(new Runnable() {
+            public void run() {
+                injector.injectFailureFor(request);
+            }
+        });
+    }
+
+    @Test
+    public void theInjectorShouldNotAllocateWhenTheConditionDoesNotApply() {
+        injector.failsWith(501, "errorCode", "errorMessage", new ErrorCondition<CreateTableRequest>() {
+            @Override
+            public boolean shouldFail(CreateTableRequest request) {
+                return true;
+            }
+        });
+        assertNoAllocation(new Runnable() {
+            public void run() {
+                injector.injectFailureFor(request);
+            }
+        });
+    }
+
+    @Test
+    public void theInjectorShouldNotAllocateWhenTheFailureApplies() {
+        injector.failsWith(501, "errorCode", "errorMessage", null);
+        assertNoAllocation(new Runnable() {
+            public void run() {
+                try {
+                    injector.injectFailureFor(request);
+                } catch (AmazonServiceException e) {
+                    // Expected
+                }
+            }
+        });
+    }
+
+    @Test
+    public void theInjectorShouldThrowTheSameStacklessException() {
+        injector.failsWith(501, "errorCode", "errorMessage", null);
+        AmazonServiceException first = failure();
+        AmazonServiceException second = failure();
+        assertSame(first, second);
+        assertEquals(0, first.getStackTrace().length);
+        assertEquals(501, first.getStatusCode());
+        assertEquals("errorCode", first.getErrorCode());
+        assertEquals("errorMessage", first.getErrorMessage());
+    }
+
+    private AmazonServiceException failure() {
+        try {
+            injector.injectFailureFor(request);
+        } catch (AmazonServiceException e) {
+            return e;
+        }
+        throw new AssertionError("The exception should have been thrown");
+    }
+
+}
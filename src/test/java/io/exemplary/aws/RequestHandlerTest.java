@@ -0,0 +1,75 @@
+/**
+ * Copyright 2017 Alessandro Simi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.exemplary.aws;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static io.exemplary.aws.Allocations.assertNoAllocation;
+
+public class RequestHandlerTest extends AbstractTest {
+
+    private static final String ACCESS_KEY = "accessKey";
+    private static final String REGION = "us-east-1";
+
+    // The server has loaded the SQLite libraries
+    private final RequestHandler requestHandler = new RequestHandler();
+
+    @Test
+    public void theSchemaLookupShouldNotAllocate() {
+        requestHandler.createTable(ACCESS_KEY, REGION, createTableRequest("tableName", "key"));
+        assertNoAllocation(new Runnable() {
+            public void run() {
+                requestHandler.schemaOf(ACCESS_KEY, REGION, "tableName");
+            }
+        });
+    }
+
+    @Test
+    public void theWritesBookkeepingShouldNotAllocateWithoutTimeToLive() {
+        requestHandler.createTable(ACCESS_KEY, REGION, createTableRequest("tableName", "key"));
+        assertNoWritesBookkeepingAllocation();
+    }
+
+    @Test
+    public void theWritesBookkeepingShouldNotAllocateWithTimeToLiveOnAnotherTable() {
+        requestHandler.createTable(ACCESS_KEY, REGION, createTableRequest("tableName", "key"));
+        requestHandler.createTable(ACCESS_KEY, REGION, createTableRequest("otherTableName", "key"));
+        requestHandler.updateTimeToLive("otherTableName", "expiry", true);
+        assertNoWritesBookkeepingAllocation();
+    }
+
+    /**
+     * What PutItem, DeleteItem and BatchWriteItem run around the database
+     * call with the capacity accounting off and no failure injected.
+     */
+    private void assertNoWritesBookkeepingAllocation() {
+        final PutItemRequest putItem = new PutItemRequest("tableName", key("key1"));
+        final Map<String, AttributeValue> key = key("key1");
+        assertNoAllocation(new Runnable() {
+            public void run() {
+                requestHandler.injectFailureFor(ACCESS_KEY, putItem);
+                requestHandler.track(ACCESS_KEY, REGION, "tableName", key, key);
+                requestHandler.untrack(ACCESS_KEY, REGION, "tableName", key);
+                requestHandler.tracksWrites();
+            }
+        });
+    }
+
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2017 Alessandro Simi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.exemplary.aws;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ServerHandlerTest {
+
+    @Test
+    public void theHandlerShouldAcceptGzip() {
+        assertTrue(ServerHandler.acceptsGzip("gzip"));
+        assertTrue(ServerHandler.acceptsGzip("GZIP"));
+        assertTrue(ServerHandler.acceptsGzip("deflate, gzip"));
+        assertTrue(ServerHandler.acceptsGzip("gzip;q=0.5, identity"));
+        assertTrue(ServerHandler.acceptsGzip("gzip; q=1.0"));
+    }
+
+    @Test
+    public void theHandlerShouldNotAcceptGzip() {
+        assertFalse(ServerHandler.acceptsGzip(null));
+        assertFalse(ServerHandler.acceptsGzip(""));
+        assertFalse(ServerHandler.acceptsGzip("identity"));
+        assertFalse(ServerHandler.acceptsGzip("x-gzip-other"));
+        // Zero quality means the encoding is not acceptable
+        assertFalse(ServerHandler.acceptsGzip("gzip;q=0"));
+        assertFalse(ServerHandler.acceptsGzip("gzip; q=0.0, identity"));
+        assertFalse(ServerHandler.acceptsGzip("deflate, gzip;q=0.000"));
+    }
+
+}